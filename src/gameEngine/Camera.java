@@ -19,6 +19,8 @@
 package gameEngine;
 
 
+import gameEngine.Collidable.Shape;
+
 import java.awt.Color;
 import java.awt.Graphics2D;
 import java.util.ArrayList;
@@ -27,20 +29,39 @@ import java.util.Random;
 import narwhal.*;
 
 public class Camera {
-	private Vector 					cameraPos;
+	
+	//How far outside the screen we look for objects, they might have moved since the grid was built
+	private static final int CULL_MARGIN = SpatialGrid.DEFAULT_CELL_SIZE;
+	
+	private Vector 					cameraPos;		//Where the simulation thinks the camera is, only changed by capture()
+	private final Vector			viewPos = new Vector();	//Where the view is drawn from, only used by the render thread
 	private Vector					universeSize;
 	
 	private ArrayList<GameObject> 	entities;
+	private SpatialGrid<GameObject> entityGrid;
+	private ArrayList<GameObject>	visible = new ArrayList<GameObject>();
+	private final Vector			followSpeed = new Vector();
+	private final Random			shakeRandom = new Random();
 	private GameObject 				follow;
 	private Background 				background;
 	private static int 				shakeCamera = 0;
 
-	public Camera(ArrayList<GameObject> entities, Background background, GameObject follow){
+	/**
+	 * JJ> Creates a new camera
+	 * @param entities Every object in the universe
+	 * @param entityGrid Grid with the same objects as entities, used to only look at objects near the screen
+	 * @param background What to draw behind everything
+	 * @param follow Which object the camera is centred on
+	 */
+	public Camera(ArrayList<GameObject> entities, SpatialGrid<GameObject> entityGrid, Background background, GameObject follow){
 		this.entities = entities;
+		this.entityGrid = entityGrid;
 		this.follow = follow;
 		this.background = background;
 		this.cameraPos = new Vector();
 		universeSize = background.getUniverseSize();
+		cameraPos.x = getCameraX(follow.pos.x, follow.image.getWidth());
+		cameraPos.y = getCameraY(follow.pos.y, follow.image.getHeight());
 	}
 	
 	public static void shakeCamera(int shake){
@@ -51,23 +72,66 @@ public class Camera {
 		in.setCameraPos(cameraPos);
 	}
 		
-	public void drawView(Graphics2D g){
-		updateCameraVectors();
+	/**
+	 * JJ> Adds the followed object and every object near the screen to a render snapshot. Called by the
+	 *     simulation at the end of every update, so the entity list and grid are never touched while drawing.
+	 *     This is also where the simulation's camera position moves, so anything in the game that looks at
+	 *     the camera (mouse aiming, sound, particles) sees the same thing no matter when frames are drawn.
+	 */
+	public void capture(RenderSnapshot snapshot){
+		cameraPos.x = getCameraX(follow.pos.x, follow.image.getWidth());
+		cameraPos.y = getCameraY(follow.pos.y, follow.image.getHeight());
+		snapshot.setFollow(follow, follow.getLastX(), follow.getLastY());
+		
+		//Shaking wears off a little every update
+		snapshot.shake = shakeCamera;
+		if( shakeCamera > 0 ) shakeCamera--;
+		
+		//Only look at objects near where the camera will be. The grid is rebuilt every update, but until the
+		//first update (or if the entity list has changed since) it does not match and we need to look at all of them.
+		ArrayList<GameObject> nearby = entities;
+		if( entityGrid != null && entityGrid.size() == entities.size() )
+		{
+			entityGrid.queryRectangle(cameraPos.x - CULL_MARGIN, cameraPos.y - CULL_MARGIN, 
+					cameraPos.x + GameEngine.getScreenWidth() + CULL_MARGIN, cameraPos.y + GameEngine.getScreenHeight() + CULL_MARGIN, visible);
+			nearby = visible;
+		}
+		
+		for( int i = 0; i < nearby.size(); i++ )
+		{
+			GameObject entity = nearby.get(i);
+			snapshot.addEntity(entity.image, entity.getLastX(), entity.getLastY(), entity.pos.x, entity.pos.y, 
+					entity.shape == Shape.CIRCLE ? entity.radius : -1);
+		}
+	}
+	
+	/**
+	 * JJ> Draws the background and every object in a render snapshot. Only the snapshot is used, so this
+	 *     can be done while the next update is running.
+	 */
+	public void drawView(Graphics2D g, RenderSnapshot snapshot){
+		float step = snapshot.getInterpolation(1000000000L / GameEngine.getConfig().simulationRate);
+		updateCameraVectors(snapshot, step);
 		
 		// Draw background
-		background.drawBackground(g, cameraPos, follow.getSpeed());
+		followSpeed.set(snapshot.followSpeedX, snapshot.followSpeedY);
+		background.drawBackground(g, viewPos, followSpeed);
 		
 		int count = 0; // For debug purposes
 		
 		// Draw all entities
-		for( int i = 0; i < entities.size(); i++ )
+		for( int i = 0; i < snapshot.entityCount; i++ )
 		{
-			GameObject entity = entities.get(i);
-			if ( isInFrame(entity) )
+			Image2D image = snapshot.entityImage[i];
+			float x = GameEngine.interpolate(snapshot.entityLastX[i], snapshot.entityX[i], step);
+			float y = GameEngine.interpolate(snapshot.entityLastY[i], snapshot.entityY[i], step);
+			if ( isInView(x, y, image.getWidth(), image.getHeight()) )
 			{
-				entity.draw(g, cameraPos);
+				int drawX = (int)x - viewPos.getX();
+				int drawY = (int)y - viewPos.getY();
+				image.draw(g, drawX, drawY);
 				
-				entity.drawCollision(g, cameraPos);
+				if( GameEngine.getConfig().debugMode ) drawCollision(g, drawX, drawY, image, snapshot.entityRadius[i]);
 				count++;
 			}
 		}
@@ -76,10 +140,26 @@ public class Camera {
 		if( GameEngine.getConfig().debugMode )
 		{
 			g.setColor(Color.WHITE);
-			g.drawString("cameraPos X: " + cameraPos.getX() + " Y: " + cameraPos.getY(), 5, 20);
-			g.drawString("shipPos       X: " + entities.get(0).pos.getX() + " Y: " + entities.get(0).pos.getY(), 5, 30);
-			g.drawString("PlanetPos   X: " + entities.get(1).pos.getX() + " Y: " + entities.get(1).pos.getY(), 5, 40);
-			g.drawString("Drawn entities: " + count, 5, 60);
+			g.drawString("cameraPos X: " + viewPos.getX() + " Y: " + viewPos.getY(), 5, 20);
+			g.drawString("shipPos       X: " + (int)snapshot.followX + " Y: " + (int)snapshot.followY, 5, 30);
+			g.drawString("Drawn entities: " + count + " of " + snapshot.entityCount, 5, 60);
+		}
+	}
+	
+	/**
+	 * JJ> Draws the image bounds and collision circle of a object
+	 */
+	private void drawCollision(Graphics2D g, int drawX, int drawY, Image2D image, float radius){
+		
+		//Always draw the image bounds
+		g.setColor(Color.BLUE);
+		g.drawRect(drawX, drawY, image.getWidth(), image.getHeight());
+
+		//Draw it as a circle
+		if( radius >= 0 )
+		{
+			g.setColor(Color.RED);
+			g.drawOval(drawX + image.getWidth()/2 - (int)radius, drawY + image.getHeight()/2 - (int)radius, (int)radius*2, (int)radius*2);
 		}
 	}
 	
@@ -90,7 +170,7 @@ public class Camera {
 	 * @return True if it is inside the screen. False otherwise.
 	 */
 	public boolean isInFrame(GameObject object) {
-		return isInFrame( object.pos, new Vector(object.image.getWidth(), object.image.getHeight()) );
+		return isInFrame( object.pos.x, object.pos.y, object.image.getWidth(), object.image.getHeight() );
 	}
 	
 	/**
@@ -100,40 +180,66 @@ public class Camera {
 	 * @return True if it is inside the screen. False otherwise.
 	 */
 	public boolean isInFrame(Vector pos, Vector tolerance) {
-		float drawX = pos.x - cameraPos.x;
-		float drawY = pos.y - cameraPos.y;
-		
+		return isInFrame( pos.x, pos.y, tolerance.x, tolerance.y );
+	}
+	
+	/**
+	 * JJ> Same as isInFrame(Vector, Vector) but without needing any Vectors
+	 */
+	public boolean isInFrame(float x, float y, float toleranceX, float toleranceY) {
+		return isInside(x - cameraPos.x, y - cameraPos.y, toleranceX, toleranceY);
+	}
+	
+	/**
+	 * JJ> Same as isInFrame() but for the view that is being drawn right now. Only call from the render thread.
+	 */
+	public boolean isInView(float x, float y, float toleranceX, float toleranceY) {
+		return isInside(x - viewPos.x, y - viewPos.y, toleranceX, toleranceY);
+	}
+	
+	private static boolean isInside(float drawX, float drawY, float toleranceX, float toleranceY) {
 		if( drawX > GameEngine.getScreenWidth() )  return false;
 		if( drawY > GameEngine.getScreenHeight() ) return false;
-		if( drawX < -tolerance.x ) 			  return false;
-		if( drawY < -tolerance.y ) 			  return false;
+		if( drawX < -toleranceX ) 			  return false;
+		if( drawY < -toleranceY ) 			  return false;
 		
 		return true;
 	}
 
-	private void updateCameraVectors(){
-		cameraPos.x = follow.pos.x - ((float)GameEngine.getScreenWidth() / 2f) + follow.image.getWidth()/2;
-		cameraPos.y = follow.pos.y - ((float)GameEngine.getScreenHeight() / 2f) + follow.image.getHeight()/2;
-		
-		if (cameraPos.x < 0) cameraPos.x = 0;
-		else if (cameraPos.x > universeSize.x - GameEngine.getScreenWidth()) cameraPos.x = universeSize.x - GameEngine.getScreenWidth();
-		
-		if (cameraPos.y < 0) cameraPos.y = 0;
-		else if (cameraPos.y > universeSize.y - GameEngine.getScreenHeight()) cameraPos.y = universeSize.y - GameEngine.getScreenHeight();
+	//Camera position centred on a object, kept inside the universe
+	private float getCameraX(float x, int width){
+		float camera = x - ((float)GameEngine.getScreenWidth() / 2f) + width/2;
+		return Math.max(0, Math.min(universeSize.x - GameEngine.getScreenWidth(), camera));
+	}
+	
+	private float getCameraY(float y, int height){
+		float camera = y - ((float)GameEngine.getScreenHeight() / 2f) + height/2;
+		return Math.max(0, Math.min(universeSize.y - GameEngine.getScreenHeight(), camera));
+	}
+
+	private void updateCameraVectors(RenderSnapshot snapshot, float step){
+		viewPos.x = getCameraX(GameEngine.interpolate(snapshot.followLastX, snapshot.followX, step), snapshot.followWidth);
+		viewPos.y = getCameraY(GameEngine.interpolate(snapshot.followLastY, snapshot.followY, step), snapshot.followHeight);
 		
 		//Twist and shout! Shake it baby!
-		if( shakeCamera != 0 )
+		if( snapshot.shake > 0 )
 		{
-			Random rand = new Random();
-			int x = rand.nextInt(shakeCamera)-shakeCamera/2;
-			int y = rand.nextInt(shakeCamera)-shakeCamera/2;
-			cameraPos.x += x;
-			cameraPos.y += y;
-			shakeCamera--;
+			int x = shakeRandom.nextInt(snapshot.shake)-snapshot.shake/2;
+			int y = shakeRandom.nextInt(snapshot.shake)-snapshot.shake/2;
+			viewPos.x += x;
+			viewPos.y += y;
 		}
 	}
 
 	public Vector getCameraPos() {
 		return cameraPos;
 	}
+	
+	/**
+	 * JJ> Where the frame that is being drawn right now is seen from, smoothed and shaken. Only use this
+	 *     from the render thread, the game itself should use getCameraPos().
+	 */
+	public Vector getViewPos() {
+		return viewPos;
+	}
 }
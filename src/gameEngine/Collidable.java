@@ -41,7 +41,7 @@ public abstract class Collidable {
 	private boolean pointInsideShape(Vector point){
 		
 		//Circle
-		if 		(this.shape == Shape.CIRCLE && pos.minus(point).length() < radius) return true;
+		if 		(this.shape == Shape.CIRCLE && Vector.distanceSq(pos, point) < radius*radius) return true;
 		
 		//Rectangle
 		else if (this.shape == Shape.RECT)
@@ -77,7 +77,8 @@ public abstract class Collidable {
 		{
 			if (object.shape == Shape.CIRCLE)
 			{
-				if (this.getPosCentre().minus(object.getPosCentre()).length() < this.radius + object.radius) collision = true;
+				float reach = this.radius + object.radius;
+				if (Vector.distanceSq(getCentreX(), getCentreY(), object.getCentreX(), object.getCentreY()) < reach*reach) collision = true;
 			}
 			else if (object.shape == Shape.RECT)
 			{
@@ -111,10 +112,25 @@ public abstract class Collidable {
 	 */
 	protected void setRadius(int radius){
 		this.radius = radius;
-		this.size = new Vector(radius*2, radius*2);
+		if( size == null ) size = new Vector();
+		size.x = size.y = radius*2;
 	}
 	
 	protected Vector getPosCentre(){
 		return pos;
 	}
+	
+	/**
+	 * JJ> Same as getPosCentre().x but without making a new Vector
+	 */
+	protected float getCentreX(){
+		return pos.x;
+	}
+	
+	/**
+	 * JJ> Same as getPosCentre().y but without making a new Vector
+	 */
+	protected float getCentreY(){
+		return pos.y;
+	}
 }
\ No newline at end of file
@@ -9,8 +9,25 @@ import java.io.FileReader;
 import java.io.FileWriter;
 
 public class Configuration {
+	/**
+	 * JJ> Limits for the number of game updates per second. Speeds and other amounts that change every
+	 *     update are tuned for 60, other rates make the game itself run faster or slower.
+	 */
+	public static final int MIN_SIMULATION_RATE = 20;
+	public static final int MAX_SIMULATION_RATE = 240;
+	
 	public boolean debugMode = false;
 	public boolean fullScreen = true;
+	public volatile boolean softwareParticles = false;	//Draw particles with the ParticleRasterizer instead of Java2D
+	public float gravityTheta = GravitySolver.DEFAULT_THETA;	//Barnes-Hut opening angle, 0 is exact
+	public int simulationRate = 60;				//Game updates per second, between MIN_SIMULATION_RATE and MAX_SIMULATION_RATE
+	public int renderRate = 60;					//Frames drawn per second, 0 draws as often as possible
+	public boolean activeRendering = true;		//Draw from the main loop with a BufferStrategy instead of repaint()
+	public boolean parallelUpdate = true;		//Let entities think on every processor before they are updated one by one
+	public int[] rotationBuckets = {32, 64, 128};	//Pre-rotated angles per image for LOW, NORMAL and HIGH quality, 0 disables
+	public int spriteCacheSize = 64;			//Megabytes of memory used for pre-rotated images
+	public int variantCacheSize = 32;			//Megabytes of memory kept for image effects nobody uses right now
+	public int backgroundCacheSize = 48;		//Megabytes of memory used for generated background tiles
 	private VideoQuality videoQuality;
 	private RenderingHints quality = new RenderingHints(null);
 	
@@ -85,6 +102,15 @@ public class Configuration {
 		return videoQuality;
 	}
 	
+	/**
+	 * JJ> Number of pre-rotated angles each image gets at the current video quality, 0 means images
+	 *     are rotated while drawing instead
+	 */
+	public int getRotationBuckets() {
+		if( videoQuality == null ) return rotationBuckets[VideoQuality.VIDEO_NORMAL.ordinal()];
+		return rotationBuckets[videoQuality.ordinal()];
+	}
+	
 	/**
 	 * JJ> Save current configuration settings
 	 */
@@ -125,6 +151,42 @@ public class Configuration {
 				else 			  		save.write("FALSE");
 				save.newLine();
 				
+				//Particle rendering mode
+				save.write("[SOFTWARE_PARTICLES]: ");
+				if ( softwareParticles ) save.write("TRUE");
+				else 			  		 save.write("FALSE");
+				save.newLine();
+				
+				//Gravity accuracy
+				save.write("[GRAVITY_THETA]: " + gravityTheta);
+				save.newLine();
+				
+				//Update and frame rate
+				save.write("[SIMULATION_RATE]: " + simulationRate);
+				save.newLine();
+				save.write("[RENDER_RATE]: " + renderRate);
+				save.newLine();
+				
+				//Rendering mode
+				save.write("[ACTIVE_RENDERING]: ");
+				if ( activeRendering ) 	save.write("TRUE");
+				else 			  		save.write("FALSE");
+				save.newLine();
+				save.write("[PARALLEL_UPDATE]: ");
+				if ( parallelUpdate ) 	save.write("TRUE");
+				else 			  		save.write("FALSE");
+				save.newLine();
+				
+				//Pre-rotated images
+				save.write("[ROTATION_BUCKETS]: " + rotationBuckets[0] + " " + rotationBuckets[1] + " " + rotationBuckets[2]);
+				save.newLine();
+				save.write("[SPRITE_CACHE_SIZE]: " + spriteCacheSize);
+				save.newLine();
+				save.write("[VARIANT_CACHE_SIZE]: " + variantCacheSize);
+				save.newLine();
+				save.write("[BACKGROUND_CACHE_SIZE]: " + backgroundCacheSize);
+				save.newLine();
+				
 				save.close();
 				Log.message("Configuration settings saved: " + conf.getAbsolutePath() );
 			} 
@@ -187,6 +249,58 @@ public class Configuration {
 					{
 						if( line.endsWith("FALSE") ) fullScreen = false;
 					}
+
+					//Particle rendering mode
+					else if(line.startsWith("[SOFTWARE_PARTICLES]:"))
+					{
+						softwareParticles = line.endsWith("TRUE");
+					}
+
+					//Gravity accuracy
+					else if(line.startsWith("[GRAVITY_THETA]:"))
+					{
+						gravityTheta = parseFloat(line, gravityTheta);
+					}
+
+					//Update and frame rate
+					else if(line.startsWith("[SIMULATION_RATE]:"))
+					{
+						simulationRate = Math.min(MAX_SIMULATION_RATE, parseInt(line, simulationRate, MIN_SIMULATION_RATE));
+					}
+					else if(line.startsWith("[RENDER_RATE]:"))
+					{
+						renderRate = parseInt(line, renderRate, 0);
+					}
+					
+					//Rendering mode
+					else if(line.startsWith("[ACTIVE_RENDERING]:"))
+					{
+						activeRendering = !line.endsWith("FALSE");
+					}
+					else if(line.startsWith("[PARALLEL_UPDATE]:"))
+					{
+						parallelUpdate = !line.endsWith("FALSE");
+					}
+					
+					//Pre-rotated images
+					else if(line.startsWith("[ROTATION_BUCKETS]:"))
+					{
+						String[] values = line.substring(line.indexOf(':')+1).trim().split("\\s+");
+						for( int i = 0; i < values.length && i < rotationBuckets.length; i++ )
+							rotationBuckets[i] = parseInt(values[i], line, rotationBuckets[i], 0);
+					}
+					else if(line.startsWith("[SPRITE_CACHE_SIZE]:"))
+					{
+						spriteCacheSize = parseInt(line, spriteCacheSize, 1);
+					}
+					else if(line.startsWith("[VARIANT_CACHE_SIZE]:"))
+					{
+						variantCacheSize = parseInt(line, variantCacheSize, 0);
+					}
+					else if(line.startsWith("[BACKGROUND_CACHE_SIZE]:"))
+					{
+						backgroundCacheSize = parseInt(line, backgroundCacheSize, 1);
+					}
 				}
 								
 				//Close file
@@ -212,5 +326,41 @@ public class Configuration {
 			Sound.enabled = true;
 			fullScreen = false;
 		}
+		
+		//Config files without a [GRAPHICS] line get normal quality
+		else if( videoQuality == null ) setVideoQuality( VideoQuality.VIDEO_NORMAL );
+	}
+	
+	/**
+	 * JJ> Reads the number after the colon of a config line. A bad number only resets that one setting,
+	 *     everything else in the file is still used.
+	 * @param fallback Used if the line does not contain a valid number
+	 * @param min Smaller numbers are raised to this
+	 */
+	private static int parseInt( String line, int fallback, int min ) {
+		return parseInt(line.substring(line.indexOf(':')+1).trim(), line, fallback, min);
+	}
+	
+	private static int parseInt( String value, String line, int fallback, int min ) {
+		try
+		{
+			return Math.max(min, Integer.parseInt(value));
+		}
+		catch( NumberFormatException e )
+		{
+			Log.warning("Invalid number in configuration file, using " + fallback + " instead: " + line);
+			return fallback;
+		}
+	}
+	
+	private static float parseFloat( String line, float fallback ) {
+		try
+		{
+			float value = Float.parseFloat(line.substring(line.indexOf(':')+1).trim());
+			if( value >= 0 && !Float.isInfinite(value) ) return value;
+		}
+		catch( NumberFormatException e ) {}
+		Log.warning("Invalid number in configuration file, using " + fallback + " instead: " + line);
+		return fallback;
 	}
 }
@@ -0,0 +1,144 @@
+//********************************************************************************************
+//*
+//*    This file is part of Project Narwhal.
+//*
+//*    Project Narwhal is free software: you can redistribute it and/or modify it
+//*    under the terms of the GNU General Public License as published by
+//*    the Free Software Foundation, either version 3 of the License, or
+//*    (at your option) any later version.
+//*
+//*    Project Narwhal is distributed in the hope that it will be useful, but
+//*    WITHOUT ANY WARRANTY; without even the implied warranty of
+//*    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//*    General Public License for more details.
+//*
+//*    You should have received a copy of the GNU General Public License
+//*    along with Project Narwhal.  If not, see <http://www.gnu.org/licenses/>.
+//*
+//********************************************************************************************
+package gameEngine;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * JJ> Keeps the main loop on time. Waiting is done with a coarse LockSupport.parkNanos() that wakes up
+ *     a little early, followed by a short spin to hit the exact deadline, which is a lot more precise
+ *     than Thread.sleep(). It also keeps track of how long each frame actually took compared to how long
+ *     it should have taken, so that the debug overlay can show it.
+ * @author Johan Jansen and Anders Eie
+ */
+public class FramePacer {
+	private static final long SPIN_TIME = 1500000;		//Spin the last 1.5 ms instead of sleeping
+	private static final long LATE_MARGIN = 2000000;	//Frames more than 2 ms too slow count as late
+	private static final int HISTORY = 120;				//Number of frames used for average and worst
+
+	private long targetFrameTime;
+	private long lastFrame;
+	private final long[] frameTimes = new long[HISTORY];
+	private int historyIndex, historyCount;
+	private int lateFrames, skippedFrames;
+
+	/**
+	 * JJ> Waits until System.nanoTime() reaches the deadline. Returns right away if it already has.
+	 */
+	public void sleepUntil( long deadline ) {
+		long remaining = deadline - System.nanoTime();
+
+		//Sleep most of the way
+		while( remaining > SPIN_TIME )
+		{
+			LockSupport.parkNanos(remaining - SPIN_TIME);
+			remaining = deadline - System.nanoTime();
+		}
+
+		//Then spin the rest
+		while( deadline - System.nanoTime() > 0 ) Thread.yield();
+	}
+
+	/**
+	 * JJ> Sets how long each frame should take, 0 if there is no target
+	 */
+	public synchronized void setTargetFrameTime( long nanos ) {
+		targetFrameTime = nanos;
+	}
+
+	/**
+	 * JJ> Called every time a frame has actually been drawn to screen
+	 */
+	public synchronized void frameDrawn() {
+		long now = System.nanoTime();
+		if( lastFrame != 0 )
+		{
+			long frameTime = now - lastFrame;
+			frameTimes[historyIndex] = frameTime;
+			historyIndex = (historyIndex+1) % HISTORY;
+			historyCount = Math.min(historyCount+1, HISTORY);
+			if( targetFrameTime > 0 && frameTime > targetFrameTime + LATE_MARGIN ) lateFrames++;
+		}
+		lastFrame = now;
+	}
+
+	/**
+	 * JJ> Called when a frame was due but was not drawn because the previous one is not done yet
+	 */
+	public synchronized void frameSkipped() {
+		skippedFrames++;
+	}
+
+	/**
+	 * @return How long each frame should take in nanoseconds, 0 if drawing as fast as possible
+	 */
+	public synchronized long getTargetFrameTime() {
+		return targetFrameTime;
+	}
+
+	/**
+	 * @return How long the last frame took in nanoseconds
+	 */
+	public synchronized long getLastFrameTime() {
+		if( historyCount == 0 ) return 0;
+		return frameTimes[(historyIndex+HISTORY-1) % HISTORY];
+	}
+
+	/**
+	 * @return Average frame time in nanoseconds over the last few frames
+	 */
+	public synchronized long getAverageFrameTime() {
+		if( historyCount == 0 ) return 0;
+		long total = 0;
+		for( int i = 0; i < historyCount; i++ ) total += frameTimes[i];
+		return total / historyCount;
+	}
+
+	/**
+	 * @return The slowest frame time in nanoseconds over the last few frames
+	 */
+	public synchronized long getWorstFrameTime() {
+		long worst = 0;
+		for( int i = 0; i < historyCount; i++ ) worst = Math.max(worst, frameTimes[i]);
+		return worst;
+	}
+
+	/**
+	 * @return Frames drawn per second, based on the average frame time
+	 */
+	public float getFramesPerSecond() {
+		long average = getAverageFrameTime();
+		if( average == 0 ) return 0;
+		return 1000000000f / average;
+	}
+
+	/**
+	 * @return Total number of frames that took too long since the game started
+	 */
+	public synchronized int getLateFrames() {
+		return lateFrames;
+	}
+
+	/**
+	 * @return Total number of frames skipped since the game started
+	 */
+	public synchronized int getSkippedFrames() {
+		return skippedFrames;
+	}
+}
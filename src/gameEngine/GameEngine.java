@@ -30,6 +30,8 @@ import java.awt.image.VolatileImage;
 
 import javax.swing.JFrame;
 
+import narwhal.Game;
+
 /**
  * JJ> This is the Main class where everything starts. It starts a new thread of GameWindow and
  *     lets go, everything is handled by the thread from there.
@@ -38,18 +40,24 @@ import javax.swing.JFrame;
  */
 public abstract class GameEngine {
 	private static JFrame window;
+	private static int headlessWidth, headlessHeight;	//Screen size when there is no window
 	private static Camera viewPort = null;
 	private static ParticleEngine particleEngine = null;
+	private static final FramePacer framePacer = new FramePacer();
 	public static Configuration config;
 
-	// Create a new blank cursor.
-	public static final Cursor BLANK_CURSOR = Toolkit.getDefaultToolkit().createCustomCursor(
+	// Create a new blank cursor (there are no cursors without a screen)
+	public static final Cursor BLANK_CURSOR = GraphicsEnvironment.isHeadless() ? Cursor.getDefaultCursor() : Toolkit.getDefaultToolkit().createCustomCursor(
 			new BufferedImage(16, 16, BufferedImage.TYPE_INT_ARGB), new Point(0, 0), "blank cursor");
 
 	//Hardware graphic stuff
 	private static GraphicsEnvironment 	 graphEnv;
 	private static GraphicsDevice 		 graphDevice;
 	private static GraphicsConfiguration graphicConf;
+	
+	//Simulation clock
+	private static long gameTime = 0;				//Nanoseconds simulated so far
+	private static final float MAX_INTERPOLATION = 256;	//Movement longer than this is a jump, not smoothed
 			
 	/**
 	 * JJ> The main game function, here is where everything starts
@@ -88,6 +96,22 @@ public abstract class GameEngine {
     	GameEngine.startNewGame("Project Narwhal");
   	}
 	
+	/**
+	 * JJ> Sets up the engine without opening a window, so that games can be run by tests and tools that
+	 *     have no screen. Sound and music are turned off and the screen is pretended to be the given size.
+	 *     The game clock starts over, so calling this before every new game makes games repeatable.
+	 */
+	public static void startHeadless(Configuration settings, int width, int height) {
+		config = settings;
+		gameTime = 0;
+		graphicConf = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB).createGraphics().getDeviceConfiguration();
+		headlessWidth = width;
+		headlessHeight = height;
+		Sound.enabled = false;
+		Music.musicEnabled = false;
+		particleEngine = new ParticleEngine();
+	}
+	
 	/**
 	 * JJ> Modifies the Graphics2D to use the current video settings
 	 */
@@ -95,6 +119,13 @@ public abstract class GameEngine {
 		config.getGraphicsSettings(g);
 	}
 	
+	/**
+	 * JJ> The GraphicsConfiguration of the screen, needed to validate VolatileImages
+	 */
+	public static GraphicsConfiguration getGraphicsConfiguration() {
+		return graphicConf;
+	}
+	
 	/**
 	 * JJ> Used for constructing a VolatileImage
 	 */
@@ -109,15 +140,49 @@ public abstract class GameEngine {
 		return graphicConf.createCompatibleImage( width, height, VolatileImage.TRANSLUCENT );
 	}
 
+	/**
+	 * JJ> Gets how much time has been simulated. Use this instead of System.currentTimeMillis() for
+	 *     anything that happens in the game world, so that it runs at the same speed as the game.
+	 * @return Game time in milliseconds
+	 */
+	public static long getGameTime() {
+		return gameTime / 1000000;
+	}
+	
+	static void advanceGameTime( long nanos ) {
+		gameTime += nanos;
+	}
+	
+	/**
+	 * JJ> Runs one fixed update of a game like the main loop does, for games run after startHeadless()
+	 */
+	public static GameWindow.GameState updateHeadless( Game game ) {
+		GameWindow.GameState state = game.update();
+		advanceGameTime( 1000000000L / config.simulationRate );
+		return state;
+	}
+	
+	/**
+	 * JJ> Finds the position to draw something at between where it was last update and where it is now.
+	 *     Large jumps (like wrapping around the universe) are not smoothed.
+	 * @param step How far between the last and the current update we are drawing, from 0 to 1
+	 */
+	public static float interpolate( float last, float now, float step ) {
+		if( Math.abs(now - last) > MAX_INTERPOLATION ) return now;
+		return last + (now - last) * step;
+	}
+	
 	public static Vector getResolutionVector(){
-		return new Vector(window.getWidth(), window.getHeight());
+		return new Vector(getScreenWidth(), getScreenHeight());
 	}
 	
 	public static int getScreenWidth()	{
+		if( window == null ) return headlessWidth;
 		return window.getWidth();
 	}
 	
 	public static int getScreenHeight()	{
+		if( window == null ) return headlessHeight;
 		return window.getHeight();
 	}
 	
@@ -147,15 +212,37 @@ public abstract class GameEngine {
 	public static Vector getCameraPos() {
 		return viewPort.getCameraPos();
 	}
+	
+	/**
+	 * JJ> Camera position of the frame being drawn, only for use while drawing
+	 */
+	public static Vector getViewPos() {
+		return viewPort.getViewPos();
+	}
+	
+	public static boolean isInView(float x, float y, float toleranceX, float toleranceY) {
+		return viewPort.isInView(x, y, toleranceX, toleranceY);
+	}
 
 	public static boolean isInFrame(Vector pos, Vector tolerance) {
 		return viewPort.isInFrame(pos, tolerance);
 	}
 	
+	public static boolean isInFrame(float x, float y, float toleranceX, float toleranceY) {
+		return viewPort.isInFrame(x, y, toleranceX, toleranceY);
+	}
+	
 	public static boolean isInFrame(GameObject object) {
 		return viewPort.isInFrame(object);
 	}
 
+	/**
+	 * JJ> Gets frame timing statistics of the main loop
+	 */
+	public static FramePacer getFramePacer() {
+		return framePacer;
+	}
+
 	public static ParticleEngine getParticleEngine() {
 		return particleEngine;
 	}
@@ -18,26 +18,46 @@
 //********************************************************************************************
 package gameEngine;
 
-import java.awt.Color;
-import java.awt.Graphics;
-import java.awt.Graphics2D;
-
 import narwhal.Game;
 import narwhal.Weapon;
 
 public abstract class GameObject extends Physics{
 	protected static final int INACTIVE_OBJECT = Integer.MIN_VALUE;
 	protected static final int OBJECT_INVULNERABLE = Integer.MAX_VALUE;
+	
+	/**
+	 * JJ> What kind of object this is. Every kind is kept in its own list by the game, so that anything
+	 *     which only cares about one kind never has to look at the others.
+	 */
+	public enum Archetype {
+		SPACESHIP,
+		INTERCEPTOR,
+		ASTEROID,
+		PLANET;
+		
+		/**
+		 * JJ> True for every kind of Spaceship, including interceptors
+		 */
+		public boolean isSpaceship() {
+			return this == SPACESHIP || this == INTERCEPTOR;
+		}
+	}
 
 	protected Input keys;
 	protected Image2D image;
 	public Game world;
+	private final Archetype archetype;
 	
 	private float lifeMax;
 	private float life;
+	
+	//Where we were before the current update, used for drawing between updates
+	private final Vector lastPos = new Vector();
+	private boolean lastPosValid;
 
-	public GameObject( Game world ){
+	public GameObject( Game world, Archetype archetype ){
 		super();
+		this.archetype = archetype;
 		
 		//Assume that is inactive unless someone specifies otherwise with setMaxLife()
 		life = INACTIVE_OBJECT;
@@ -71,46 +91,57 @@ public abstract class GameObject extends Physics{
 		super.update();
 	}
 	
-	public void draw(Graphics2D g, Vector offset) {
-		image.draw(g, drawX(offset), drawY(offset));
+	/**
+	 * JJ> Decides what this object wants to do in the coming update, for example by looking at its
+	 *     surroundings and setting its controls. Every object thinks before any of them are updated and
+	 *     they may all think at the same time on different threads, so this must only change this object
+	 *     and only read what other objects looked like after the previous update. Anything that changes
+	 *     the rest of the world (moving, shooting, spawning, damage) belongs in update() instead.
+	 */
+	public void think() {
+		//Most objects don't think at all
 	}
 	
-	public void drawCollision(Graphics g, Vector offset) {
-		if( !GameEngine.getConfig().debugMode ) return;
-		
-		//Always draw the image bounds
-		int w = image.getWidth();
-		int h = image.getHeight();
-		g.setColor(Color.BLUE);
-		g.drawRect(drawX(offset), drawY(offset), w, h);
-
-		//Draw it as a circle
-		if( super.shape == Shape.CIRCLE )
-		{
-			w = size.getX();
-			h = size.getY();
-			Vector drawPos = getPosCentre().minus(new Vector(radius, radius)).minus(offset);
-			g.setColor(Color.RED);
-			g.drawOval(drawPos.getX(), drawPos.getY(), (int)radius*2, (int)radius*2);
-		}
+	/**
+	 * JJ> Remembers our current position before a new update, so that we can be drawn moving smoothly
+	 *     between the two updates
+	 */
+	public void savePosition(){
+		lastPos.set(pos);
+		lastPosValid = true;
 	}
 	
-	protected int drawX(Vector offset){
-		return pos.getX() - offset.getX();
+	/**
+	 * JJ> Where we were before the current update
+	 */
+	float getLastX(){
+		return lastPosValid ? lastPos.x : pos.x;
 	}
 	
-	protected int drawY(Vector offset){
-		return pos.getY() - offset.getY();
+	float getLastY(){
+		return lastPosValid ? lastPos.y : pos.y;
 	}
 	
 	public Vector getPosCentre(){
-		return pos.plus(new Vector(image.getWidth()/2, image.getHeight()/2));
+		return new Vector(getCentreX(), getCentreY());
+	}
+	
+	public float getCentreX(){
+		return pos.x + image.getWidth()/2;
+	}
+	
+	public float getCentreY(){
+		return pos.y + image.getHeight()/2;
 	}
 	
 	public float getDirection() {
 		return direction;
 	}	
 	
+	public final Archetype getArchetype() {
+		return archetype;
+	}
+	
 	public boolean active() {
 		return life != INACTIVE_OBJECT;
 	}
@@ -178,9 +209,10 @@ public abstract class GameObject extends Physics{
 	 * @return Returns true if target is within the cone, false otherwise
 	 */
 	public boolean facingTarget( GameObject target, float distance ) {
-		Vector diff = target.getPosCentre().minus(getPosCentre());
-		if( this.direction - diff.getAngle() < Math.PI/3
-				&& diff.length() < distance) return true;
+		float dx = target.getCentreX() - getCentreX();
+		float dy = target.getCentreY() - getCentreY();
+		if( this.direction - (float)Math.atan2(dy, dx) < Math.PI/3
+				&& dx*dx + dy*dy < distance*distance) return true;
 		return false;
 	}
 	
@@ -190,7 +222,15 @@ public abstract class GameObject extends Physics{
 	 * @return A float describing the distance between the two objects
 	 */
 	public float getDistanceTo( GameObject target ) {
-		return target.getPosCentre().minus(getPosCentre()).length();
+		return (float)Math.sqrt( getDistanceSqTo(target) );
+	}
+	
+	/**
+	 * JJ> Same as getDistanceTo() but squared, which is faster. Use this when you only need to
+	 *     compare distances.
+	 */
+	public float getDistanceSqTo( GameObject target ) {
+		return Vector.distanceSq(target.getCentreX(), target.getCentreY(), getCentreX(), getCentreY());
 	}
 	
 }
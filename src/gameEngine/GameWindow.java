@@ -21,6 +21,8 @@ package gameEngine;
 
 import java.awt.*;
 
+import java.awt.image.BufferStrategy;
+
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
 import java.awt.event.MouseEvent;
@@ -28,6 +30,7 @@ import java.awt.event.MouseListener;
 
 import javax.swing.JFrame;
 import javax.swing.JPanel;
+import javax.swing.SwingUtilities;
 
 import narwhal.CampaignScreen;
 import narwhal.Game;
@@ -44,16 +47,23 @@ import narwhal.GameFont.FontType;
  */
 public class GameWindow extends JPanel implements Runnable, KeyListener, MouseListener {
 	private static final long serialVersionUID = 1L;
-	private static final int TARGET_FPS = 1000 / 60;		//60 times per second
+	private static final int MAX_UPDATES_PER_FRAME = 5;		//Slow down instead of freezing if we can't keep up
+	private static final float FADE_SPEED = 0.25f;			//Screen fade per second when a game ends
+	private static final long FRAME_TIMEOUT = 250000000;	//Ask for a new frame if the last one never got drawn
+	private static final int BUFFER_COUNT = 2;				//Double buffering, page flipped if possible
 	private JFrame frame;
 	private Input keys;
 	
-	private Game theGame;
+	private volatile Game theGame;
 	private MainMenu theMenu;
-	private GameState state;
+	private volatile GameState state;
 	private Shipyard selectShip;
 	private CampaignScreen campaign;
 	
+	//Active rendering, the main loop draws directly to the canvas instead of going through repaint()
+	private volatile Canvas canvas;
+	private volatile BufferStrategy strategy;
+	
 	public static enum GameState {
 		GAME_MENU,
 		GAME_PLAYING, 
@@ -75,6 +85,17 @@ public class GameWindow extends JPanel implements Runnable, KeyListener, MouseLi
 		frame.addMouseListener(this);
 		keys = new Input();	
 		
+		//Draw on our own canvas if we do active rendering
+		if( GameEngine.getConfig().activeRendering )
+		{
+			canvas = new Canvas();
+			canvas.setIgnoreRepaint(true);
+			canvas.addKeyListener(this);
+			canvas.addMouseListener(this);
+			setLayout( new BorderLayout() );
+			add(canvas, BorderLayout.CENTER);
+		}
+		
        	//Start in the main menu
        	state = GameState.GAME_MENU;
        	theMenu = new MainMenu(keys);
@@ -85,96 +106,285 @@ public class GameWindow extends JPanel implements Runnable, KeyListener, MouseLi
        	Thread mainLoop = new Thread(this);
        	mainLoop.setPriority(Thread.MAX_PRIORITY);
        	mainLoop.start();
+       	
+       	//Active rendering draws on its own thread so that it can run at the same time as updates
+       	if( canvas != null )
+       	{
+       		Thread renderLoop = new Thread(new Runnable() {
+       			public void run() {
+       				renderLoop();
+       			}
+       		}, "Render");
+       		renderLoop.start();
+       	}
 	}
 	
-	//JJ> This is the main game loop
+	/**
+	 * JJ> This is the main game loop. The game is always updated at a fixed rate (simulationRate in the
+	 *     Configuration) no matter how fast or slow drawing is. Time that has passed is collected and
+	 *     as many updates as needed are run to catch up, then the screen is drawn (at most renderRate
+	 *     times per second) somewhere between the last two updates so that movement stays smooth.
+	 */
 	public void run() {
 		
 		// Remember the starting time
-    	long tm = System.currentTimeMillis();
+		FramePacer pacer = GameEngine.getFramePacer();
+		long lastTime = System.nanoTime();
+		long accumulator = 0;
+		long nextRender = lastTime;
+		long frameRequestTime = 0;
     			 
 		while( state != GameState.GAME_EXIT )
     	{
-			//Update mouse position within the frame
-			keys.update(frame.getMousePosition());			
-
-			try
-			{
-				while (painting) Thread.sleep(0, 5000);
-			}
-			catch (Exception e) { Log.warning(e); }
+			final long updateTime = 1000000000L / GameEngine.getConfig().simulationRate;
+			final long renderTime = GameEngine.getConfig().renderRate > 0 ? 1000000000L / GameEngine.getConfig().renderRate : 0;
+			pacer.setTargetFrameTime(renderTime);
+			
+			//Collect time passed since last loop, but never try to catch up more than a few updates
+			long now = System.nanoTime();
+			accumulator += Math.min(now - lastTime, updateTime * MAX_UPDATES_PER_FRAME);
+			lastTime = now;
+			
+			//Update mouse position within the frame (also when it is over our canvas)
+			keys.update(frame.getMousePosition(true));			
 
 			//TODO: bad change cursor every frame?
 			if(state == GameState.GAME_PLAYING)
 				frame.getContentPane().setCursor(GameEngine.BLANK_CURSOR);	
 			else
 		    	frame.getContentPane().setCursor( null );
-				
 			
-			if(state == GameState.GAME_PLAYING)		
+			//Run as many fixed updates as needed
+			while( accumulator >= updateTime && state != GameState.GAME_EXIT )
 			{
-				//Start a new game if needed
-				if(theGame == null)
+				update();
+				GameEngine.advanceGameTime(updateTime);
+				accumulator -= updateTime;
+			}
+			
+			//Without active rendering we ask for a new frame if it is time. If the last frame still hasn't been 
+			//drawn we skip this one instead of piling up more repaints.
+			if( now >= nextRender && canvas == null )
+			{
+				if( frameRequested && now - frameRequestTime < FRAME_TIMEOUT )
+				{
+					if( renderTime > 0 ) pacer.frameSkipped();
+				}
+				else
 				{
-					if( campaign.active ) theGame = new Game( keys, selectShip, campaign.getLevelSpawnList(), campaign.getUniverseSize() );
-					else				  theGame = new Game( keys, selectShip, selectShip.getSkirimishFleet(), selectShip.universeSize );
+					frameRequested = true;
+					frameRequestTime = now;
+					repaint();
 				}
+				nextRender = Math.max(nextRender + renderTime, now);
+			}
+			
+			//Sleep until next update or frame is due
+			long wake = lastTime + (updateTime - accumulator);
+			if( canvas == null )
+			{
+				if( renderTime > 0 ) wake = Math.min(wake, nextRender);
+				else				 wake = now;						//Draw as often as possible
+			}
+			if( wake > System.nanoTime() ) pacer.sleepUntil(wake);
+			else						   Thread.yield();
+		}
+		
+		GameEngine.exitGame(0);
+	}
+	
+	/**
+	 * JJ> Draws frames at renderRate when doing active rendering. Runs on its own thread, the game itself
+	 *     is drawn from render snapshots so it does not have to wait for updates. Everything else is
+	 *     drawn while holding stateLock. If active rendering fails the main loop takes over through repaint().
+	 */
+	private void renderLoop() {
+		FramePacer pacer = GameEngine.getFramePacer();
+		long nextRender = System.nanoTime();
+		
+		while( state != GameState.GAME_EXIT && canvas != null )
+		{
+			final long renderTime = GameEngine.getConfig().renderRate > 0 ? 1000000000L / GameEngine.getConfig().renderRate : 0;
+			long now = System.nanoTime();
+			if( now >= nextRender )
+			{
+				//Frames that were due while the last one was being drawn are skipped, not drawn late
+				if( renderTime > 0 )
+					for( long due = nextRender + renderTime; due <= now; due += renderTime )
+						pacer.frameSkipped();
 				
-				state = theGame.update();				
+				if( activeRendering() ) render();
+				nextRender = Math.max(nextRender + renderTime, now);
 			}
-			else if( state == GameState.GAME_SELECT_SHIP) 
+			
+			if( renderTime > 0 ) pacer.sleepUntil(nextRender);
+			else				 Thread.yield();
+		}
+	}
+	
+	/**
+	 * JJ> Checks if we can draw the frame ourselves. The buffer strategy can only be made once the
+	 *     canvas is shown on screen, until then (or if it fails) normal repaint() is used.
+	 */
+	private boolean activeRendering() {
+		if( canvas == null ) return false;
+		if( strategy == null )
+		{
+			if( !canvas.isDisplayable() ) return false;
+			
+			//Swing components may only be changed on the event dispatch thread
+			try
 			{
-				theGame = null;
-				state = selectShip.update( campaign.active );
+				SwingUtilities.invokeAndWait(new Runnable() {
+					public void run() {
+						createStrategy();
+					}
+				});
 			}
-			else if( state == GameState.GAME_END_CURRENT )
+			catch (Exception e) 
 			{
-		       	theGame = null;
-		       	campaign.active = false;
-		       	state = theMenu.showMainMenu(false);
+				Log.warning("Could not do active rendering: " + e);
+				return false;
 			}
-			else if( state == GameState.GAME_CAMPAIGN_SCREEN )
+		}
+		return strategy != null;
+	}
+	
+	/**
+	 * JJ> Makes the buffer strategy for the canvas, or removes the canvas so that repaint() takes over
+	 *     if that fails. Only call on the event dispatch thread.
+	 */
+	private void createStrategy() {
+		if( canvas == null ) return;
+		try
+		{
+			canvas.createBufferStrategy(BUFFER_COUNT);
+			strategy = canvas.getBufferStrategy();
+			canvas.requestFocus();
+			Log.message("Active rendering enabled (page flipping: " + strategy.getCapabilities().isPageFlipping() + ")");
+		}
+		catch (Exception e) 
+		{
+			Log.warning("Could not do active rendering: " + e);
+			remove(canvas);
+			canvas = null;
+			strategy = null;
+		}
+	}
+	
+	/**
+	 * JJ> Draws one frame directly to screen from the main loop. The drawing is done again if the
+	 *     buffer contents were lost (for example when the video memory was reclaimed).
+	 */
+	private void render() {
+		do
+		{
+			do
 			{
-				//Start new campaign
-				if( !campaign.active )
+				Graphics2D g = (Graphics2D)strategy.getDrawGraphics();
+				try
 				{
-					selectShip.resetUpgrades();
-					campaign.loadMission("data/campaign/level1.mission");
+					draw(g);
 				}
-				
-				state = campaign.update();
+				finally
+				{
+					g.dispose();
+				}
+			} while( strategy.contentsRestored() );
+			
+			strategy.show();
+		} while( strategy.contentsLost() );
+		
+		Toolkit.getDefaultToolkit().sync();
+		GameEngine.getFramePacer().frameDrawn();
+	}
+	
+	/**
+	 * JJ> Runs one fixed update of whatever state we are in
+	 */
+	private void update() {
+		
+		//Don't change anything while it is being drawn, except the game itself which is drawn from snapshots
+		synchronized( stateLock )
+		{
+			updateState();
+		}
+	}
+	
+	private void updateState() {
+		if(state == GameState.GAME_PLAYING)		
+		{
+			//Start a new game if needed
+			if(theGame == null)
+			{
+				if( campaign.active ) theGame = new Game( keys, selectShip, campaign.getLevelSpawnList(), campaign.getUniverseSize() );
+				else				  theGame = new Game( keys, selectShip, selectShip.getSkirimishFleet(), selectShip.universeSize );
 			}
-			else if( state == GameState.GAME_MENU)	      state = theMenu.update( theGame != null );
-
-			if(!painting) repaint();
-						
-			try 
+			
+			state = theGame.update();				
+		}
+		else if( state == GameState.GAME_SELECT_SHIP) 
+		{
+			theGame = null;
+			state = selectShip.update( campaign.active );
+		}
+		else if( state == GameState.GAME_END_CURRENT )
+		{
+	       	theGame = null;
+	       	campaign.active = false;
+	       	state = theMenu.showMainMenu(false);
+		}
+		else if( state == GameState.GAME_CAMPAIGN_SCREEN )
+		{
+			//Start new campaign
+			if( !campaign.active )
 			{
-				tm += TARGET_FPS;
-				Thread.sleep(Math.max(0, tm - System.currentTimeMillis()));
+				selectShip.resetUpgrades();
+				campaign.loadMission("data/campaign/level1.mission");
 			}
-			catch (Exception e) { Log.warning(e); }
+			
+			state = campaign.update();
 		}
-		
-		GameEngine.exitGame(0);
+		else if( state == GameState.GAME_MENU)	      state = theMenu.update( theGame != null );
 	}
 	
 		
 	/**
-	 * JJ> Paints every object of interest
+	 * JJ> Paints every object of interest when not doing active rendering
 	 * @see javax.swing.JComponent#paint(java.awt.Graphics)
 	 */
 	private float screenFade = 0;
-	private boolean painting = false;
+	private long lastPaint = System.nanoTime();
+	private volatile boolean frameRequested = false;	//repaint() was called but paint() has not finished yet
+	private final Object stateLock = new Object();			//Held while updating, and while drawing anything but the game
 	public void paint(Graphics rawGraphics) {
-		painting = true;
 		
-		//Convert to the Graphics2D object which allows us more functions
-		Graphics2D g = (Graphics2D) rawGraphics;
+		//The render thread draws everything itself
+		if( canvas != null ) return;
+		
+		draw( (Graphics2D) rawGraphics );
+
+		//Done drawing this frame
+		rawGraphics.dispose();
+		GameEngine.getFramePacer().frameDrawn();
+		frameRequested = false;
+	}
+	
+	/**
+	 * JJ> Draws the current state of the game
+	 */
+	private void draw(Graphics2D g) {
+		
+		//Real time since last frame, so that fading takes equally long at any frame rate
+		long now = System.nanoTime();
+		float frameTime = Math.min(0.1f, (now - lastPaint) / 1000000000f);
+		lastPaint = now;
 
 		//Set quality mode
 		GameEngine.getGraphicsSettings(g);
-				
+		
+		//The game is drawn from snapshots and does not need to wait for updates
+		Game theGame = this.theGame;
 		if(state == GameState.GAME_PLAYING && theGame != null)
 		{
 			theGame.draw(g);
@@ -182,7 +392,7 @@ public class GameWindow extends JPanel implements Runnable, KeyListener, MouseLi
 			//Fade out the screen
 			if( theGame.isEnded() || theGame.victory() )
 			{
-				screenFade = Math.min(1, screenFade+0.004f);
+				screenFade = Math.min(1, screenFade+FADE_SPEED*frameTime);
 				
 				if( screenFade >= 0.1f )
 				{
@@ -194,11 +404,12 @@ public class GameWindow extends JPanel implements Runnable, KeyListener, MouseLi
 					else					g.drawString("DEFEAT", GameEngine.getScreenWidth()/2-GameFont.getWidth("DEFEAT", g)/2, GameEngine.getScreenHeight()/2);
 				}
 				
-				if( screenFade == 1 || keys.escape )
+				if( screenFade == 1 || keys.escape ) synchronized( stateLock )
 				{
 					screenFade = 0;
 					
-					//Prepare next level
+					//Prepare next level (unless a update got there first)
+					if( state != GameState.GAME_PLAYING || this.theGame != theGame ) return;
 					if( campaign.active )
 					{
 						if ( campaign.alwaysWin() || theGame.victory() )
@@ -211,22 +422,23 @@ public class GameWindow extends JPanel implements Runnable, KeyListener, MouseLi
 							state = GameState.GAME_MENU;
 							theMenu.showRetry();
 						}
-						theGame = null;
+						this.theGame = null;
 					}
 					//Go back to the menu
 					else state = GameState.GAME_END_CURRENT;
 				}
 			}
 			else screenFade = 0;
+			return;
+		}
+		
+		//Everything else is drawn straight from the objects that are updated
+		synchronized( stateLock )
+		{
+			if(state == GameState.GAME_MENU) 					theMenu.draw(g, this.theGame);
+			else if(state == GameState.GAME_SELECT_SHIP) 		selectShip.draw(g);
+			else if(state == GameState.GAME_CAMPAIGN_SCREEN) 	campaign.draw(g);
 		}
-		else if(state == GameState.GAME_MENU) 					theMenu.draw(g, theGame);
-		else if(state == GameState.GAME_SELECT_SHIP) 			selectShip.draw(g);
-		else if(state == GameState.GAME_CAMPAIGN_SCREEN) 		campaign.draw(g);
-
-		//Done drawing this frame
-		g.dispose();
-		rawGraphics.dispose();
-		painting = false;
 	}
 	
 	//Functions handling input update
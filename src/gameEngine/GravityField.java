@@ -0,0 +1,166 @@
+//********************************************************************************************
+//*
+//*    This file is part of Project Narwhal.
+//*
+//*    Project Narwhal is free software: you can redistribute it and/or modify it
+//*    under the terms of the GNU General Public License as published by
+//*    the Free Software Foundation, either version 3 of the License, or
+//*    (at your option) any later version.
+//*
+//*    Project Narwhal is distributed in the hope that it will be useful, but
+//*    WITHOUT ANY WARRANTY; without even the implied warranty of
+//*    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//*    General Public License for more details.
+//*
+//*    You should have received a copy of the GNU General Public License
+//*    along with Project Narwhal.  If not, see <http://www.gnu.org/licenses/>.
+//*
+//********************************************************************************************
+package gameEngine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * JJ> Anchored objects (planets) never move, so their gravity pull on any point in the universe is the
+ *     same every update. This samples that pull once in a grid covering the universe, and moving objects
+ *     then look it up with bilinear interpolation instead of calculating it against every anchored
+ *     object again. The grid is only rebuilt when the anchored objects change.
+ *     The number of samples grows with the square of the universe size, so big universes get a
+ *     coarser grid to keep memory use and rebuild time the same as for a medium sized one.
+ * @author Johan Jansen and Anders Eie
+ */
+public class GravityField {
+	public static final int DEFAULT_SPACING = 32;
+	public static final int MAX_SAMPLES = 256*256;	//Never use more samples than this, the spacing grows instead
+
+	private final int cols, rows;					//Number of samples
+	private final float spacing;
+	private final float[] fieldX, fieldY;			//Pull at each sample
+
+	//The anchored objects the field was built from
+	private Physics[] sources = new Physics[8];
+	private float[] sourceX = new float[8], sourceY = new float[8], sourceMass = new float[8];
+	private int sourceCount;
+	private boolean built;
+
+	/**
+	 * JJ> Creates a empty gravity field covering the specified universe
+	 * @param width Universe width in pixels
+	 * @param height Universe height in pixels
+	 * @param spacing Distance in pixels between each sample
+	 */
+	public GravityField( float width, float height, int spacing ) {
+		this.spacing = spacing;
+		cols = (int)Math.ceil(width / spacing) + 1;
+		rows = (int)Math.ceil(height / spacing) + 1;
+		fieldX = new float[cols*rows];
+		fieldY = new float[cols*rows];
+	}
+
+	/**
+	 * JJ> Creates a empty gravity field covering the specified universe. Samples are DEFAULT_SPACING
+	 *     apart unless that would need more than MAX_SAMPLES of them.
+	 */
+	public GravityField( float width, float height ) {
+		this(width, height, getSpacing(width, height));
+	}
+	
+	/**
+	 * JJ> Smallest spacing that is at least DEFAULT_SPACING and gives no more than MAX_SAMPLES samples
+	 */
+	static int getSpacing( float width, float height ) {
+		int spacing = Math.max(DEFAULT_SPACING, (int)Math.sqrt(width * height / MAX_SAMPLES));
+		while( (Math.ceil(width / spacing) + 1) * (Math.ceil(height / spacing) + 1) > MAX_SAMPLES ) spacing++;
+		return spacing;
+	}
+
+
+	/**
+	 * JJ> Checks whether any anchored object has been added, removed or changed and rebuilds the
+	 *     field if needed. This is cheap when nothing has changed.
+	 * @param objects Every GameObject in the universe
+	 * @return true if the field was rebuilt
+	 */
+	public boolean update( ArrayList<GameObject> objects ) {
+		if( built && !changed(objects) ) return false;
+
+		//Remember which objects we were built from
+		sourceCount = 0;
+		for( int i = 0; i < objects.size(); i++ )
+		{
+			GameObject object = objects.get(i);
+			if( !object.anchored ) continue;
+
+			if( sourceCount == sources.length )
+			{
+				int size = sourceCount*2;
+				sources = Arrays.copyOf(sources, size);
+				sourceX = Arrays.copyOf(sourceX, size);
+				sourceY = Arrays.copyOf(sourceY, size);
+				sourceMass = Arrays.copyOf(sourceMass, size);
+			}
+			sources[sourceCount] = object;
+			sourceX[sourceCount] = object.getCentreX();
+			sourceY[sourceCount] = object.getCentreY();
+			sourceMass[sourceCount] = object.mass;
+			sourceCount++;
+		}
+
+		//Sample the pull from every anchored object
+		for( int row = 0; row < rows; row++ )
+			for( int col = 0; col < cols; col++ )
+			{
+				float x = col * spacing, y = row * spacing;
+				float ax = 0, ay = 0;
+				for( int i = 0; i < sourceCount; i++ )
+				{
+					float dx = sourceX[i] - x, dy = sourceY[i] - y;
+					float pull = GravitySolver.pull(sourceMass[i], dx*dx + dy*dy);
+					ax += dx * pull;
+					ay += dy * pull;
+				}
+				fieldX[row*cols + col] = ax;
+				fieldY[row*cols + col] = ay;
+			}
+
+		built = true;
+		return true;
+	}
+
+	//Same anchored objects in the same order, at the same place and with the same mass?
+	private boolean changed( ArrayList<GameObject> objects ) {
+		int count = 0;
+		for( int i = 0; i < objects.size(); i++ )
+		{
+			GameObject object = objects.get(i);
+			if( !object.anchored ) continue;
+			if( count == sourceCount || sources[count] != object ) return true;
+			if( sourceX[count] != object.getCentreX() || sourceY[count] != object.getCentreY() ) return true;
+			if( sourceMass[count] != object.mass ) return true;
+			count++;
+		}
+		return count != sourceCount;
+	}
+
+	/**
+	 * JJ> Adds the pull from every anchored object at the specified point to a speed vector. Points
+	 *     outside the universe use the closest edge of the field.
+	 */
+	public void apply( float x, float y, Vector speed ) {
+		float fx = Math.min( Math.max(x / spacing, 0), cols-1 );
+		float fy = Math.min( Math.max(y / spacing, 0), rows-1 );
+		int col = Math.min( (int)fx, cols-2 );
+		int row = Math.min( (int)fy, rows-2 );
+		float tx = fx - col, ty = fy - row;
+
+		int i = row*cols + col;
+		float top = fieldX[i] + (fieldX[i+1] - fieldX[i]) * tx;
+		float bot = fieldX[i+cols] + (fieldX[i+cols+1] - fieldX[i+cols]) * tx;
+		speed.x += top + (bot - top) * ty;
+
+		top = fieldY[i] + (fieldY[i+1] - fieldY[i]) * tx;
+		bot = fieldY[i+cols] + (fieldY[i+cols+1] - fieldY[i+cols]) * tx;
+		speed.y += top + (bot - top) * ty;
+	}
+}
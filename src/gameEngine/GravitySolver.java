@@ -0,0 +1,284 @@
+//********************************************************************************************
+//*
+//*    This file is part of Project Narwhal.
+//*
+//*    Project Narwhal is free software: you can redistribute it and/or modify it
+//*    under the terms of the GNU General Public License as published by
+//*    the Free Software Foundation, either version 3 of the License, or
+//*    (at your option) any later version.
+//*
+//*    Project Narwhal is distributed in the hope that it will be useful, but
+//*    WITHOUT ANY WARRANTY; without even the implied warranty of
+//*    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//*    General Public License for more details.
+//*
+//*    You should have received a copy of the GNU General Public License
+//*    along with Project Narwhal.  If not, see <http://www.gnu.org/licenses/>.
+//*
+//********************************************************************************************
+package gameEngine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * JJ> Calculates gravity pulls between every Physics object using a Barnes-Hut quadtree. Objects that
+ *     are far away are grouped together and pull as a single mass at their centre of mass, which makes
+ *     the cost grow with n*log(n) instead of n*n. How far away a group must be before it is treated as
+ *     one mass is controlled by the opening angle theta: 0 means every pair is calculated exactly (slow
+ *     but correct), larger values are faster but less accurate. 0.5 is a good compromise.
+ *     Anchored objects pull on others but are never moved themselves. Since they never move, their
+ *     pull can also be precalculated once in a GravityField.
+ * @author Johan Jansen and Anders Eie
+ */
+public class GravitySolver {
+	public static final float G = 0.00000000667428f;	//6.67428f * 0.000000001f;
+	public static final float DEFAULT_THETA = 0.5f;
+	private static final int MAX_DEPTH = 16;			//Objects on top of each other are put in the same leaf after this
+	private static final float SOFTENING = 1.0f;		//Keeps the pull finite when two centres overlap
+
+	private float theta = DEFAULT_THETA;
+
+	//Every object that is part of this update
+	private Physics[] bodies = new Physics[64];
+	private float[] bodyX = new float[64], bodyY = new float[64], bodyMass = new float[64];
+	private int[] bodyNext = new int[64];				//Next body in the same leaf
+	private int bodyCount;
+
+	//Quadtree nodes. The four children of a node are stored next to each other, starting at nodeChild
+	private float[] nodeX = new float[256], nodeY = new float[256], nodeHalf = new float[256];
+	private float[] comX = new float[256], comY = new float[256], nodeMass = new float[256];
+	private int[] nodeChild = new int[256];				//-1 if this node is a leaf
+	private int[] nodeBody = new int[256];				//First body in a leaf, -1 if empty
+	private int nodeCount;
+
+	private int[] stack = new int[64];
+
+	/**
+	 * JJ> Sets the opening angle used by solve(). A value of 0 gives the exact (brute force) result.
+	 */
+	public void setTheta( float theta ) {
+		this.theta = Math.max(0, theta);
+	}
+
+	public float getTheta() {
+		return theta;
+	}
+
+	/**
+	 * JJ> How much a mass pulls on something at the specified distance, per unit of distance. The pull
+	 *     falls off with distance (not distance squared), so the pull is diff * pull(mass, diff.lengthSq())
+	 */
+	static float pull( float mass, float distanceSq ) {
+		return G * mass / (distanceSq + SOFTENING*SOFTENING);
+	}
+
+	/**
+	 * JJ> Applies one update worth of gravity to the speed of every object and physics enabled particle
+	 * @param objects Every GameObject in the universe
+	 * @param particles Particles, only those with physics enabled in their template are included
+	 * @param field Precalculated pull from every anchored object. Anchored objects are left out of the
+	 *              quadtree when this is used. Can be null to put everything in the quadtree.
+	 */
+	public void solve( ArrayList<GameObject> objects, ArrayList<Particle> particles, GravityField field ) {
+		bodyCount = 0;
+		for( int i = 0; i < objects.size(); i++ )
+		{
+			GameObject object = objects.get(i);
+			if( field == null || !object.anchored ) addBody( object );
+		}
+		for( int i = 0; i < particles.size(); i++ )
+		{
+			Particle prt = particles.get(i);
+			if( prt.getParticleTemplate().physics && !prt.requestsDelete() ) addBody( prt );
+		}
+		if( field != null ) field.update(objects);
+
+		//Find the pull on every body and then change their speeds
+		if( bodyCount >= 2 ) buildTree();
+		for( int i = 0; i < bodyCount; i++ )
+		{
+			Physics body = bodies[i];
+			if( body.anchored ) continue;
+			if( bodyCount >= 2 ) accelerate(i, body.speed);
+			if( field != null ) field.apply(bodyX[i], bodyY[i], body.speed);
+		}
+
+		//Don't keep references to dead objects around
+		Arrays.fill(bodies, 0, bodyCount, null);
+	}
+
+	private void addBody( Physics body ) {
+		if( bodyCount == bodies.length )
+		{
+			int size = bodyCount*2;
+			bodies = Arrays.copyOf(bodies, size);
+			bodyX = Arrays.copyOf(bodyX, size);
+			bodyY = Arrays.copyOf(bodyY, size);
+			bodyMass = Arrays.copyOf(bodyMass, size);
+			bodyNext = Arrays.copyOf(bodyNext, size);
+		}
+		bodies[bodyCount] = body;
+		bodyX[bodyCount] = body.getCentreX();
+		bodyY[bodyCount] = body.getCentreY();
+		bodyMass[bodyCount] = body.mass;
+		bodyCount++;
+	}
+
+	private void buildTree() {
+
+		//The root node is a square covering every body
+		float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE;
+		float maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE;
+		for( int i = 0; i < bodyCount; i++ )
+		{
+			minX = Math.min(minX, bodyX[i]);
+			maxX = Math.max(maxX, bodyX[i]);
+			minY = Math.min(minY, bodyY[i]);
+			maxY = Math.max(maxY, bodyY[i]);
+		}
+
+		nodeCount = 0;
+		int root = newNode( (minX+maxX)/2, (minY+maxY)/2, Math.max(maxX-minX, maxY-minY)/2 + 1 );
+		for( int i = 0; i < bodyCount; i++ ) insert(root, i, 0);
+
+		//Children are always made after their parent, so going backwards sums up the tree from the leaves
+		for( int n = nodeCount-1; n >= 0; n-- )
+		{
+			float mass = 0, x = 0, y = 0;
+			if( nodeChild[n] == -1 )
+			{
+				for( int b = nodeBody[n]; b != -1; b = bodyNext[b] )
+				{
+					mass += bodyMass[b];
+					x += bodyX[b] * bodyMass[b];
+					y += bodyY[b] * bodyMass[b];
+				}
+			}
+			else for( int c = nodeChild[n]; c < nodeChild[n]+4; c++ )
+			{
+				mass += nodeMass[c];
+				x += comX[c] * nodeMass[c];
+				y += comY[c] * nodeMass[c];
+			}
+
+			nodeMass[n] = mass;
+			comX[n] = mass > 0 ? x / mass : nodeX[n];
+			comY[n] = mass > 0 ? y / mass : nodeY[n];
+		}
+	}
+
+	private void insert( int node, int body, int depth ) {
+
+		//Walk down to the leaf containing this body
+		while( nodeChild[node] != -1 )
+		{
+			node = nodeChild[node] + quadrant(node, body);
+			depth++;
+		}
+
+		//Empty leaf or too deep to split any further, just add it here
+		if( nodeBody[node] == -1 || depth >= MAX_DEPTH )
+		{
+			bodyNext[body] = nodeBody[node];
+			nodeBody[node] = body;
+			return;
+		}
+
+		//Split the leaf in four and move the bodies down into the new children
+		float half = nodeHalf[node] / 2;
+		int first = newNode( nodeX[node]-half, nodeY[node]-half, half );
+		newNode( nodeX[node]+half, nodeY[node]-half, half );
+		newNode( nodeX[node]-half, nodeY[node]+half, half );
+		newNode( nodeX[node]+half, nodeY[node]+half, half );
+		nodeChild[node] = first;
+
+		int moved = nodeBody[node];
+		nodeBody[node] = -1;
+		while( moved != -1 )
+		{
+			int next = bodyNext[moved];
+			insert(first + quadrant(node, moved), moved, depth+1);
+			moved = next;
+		}
+		insert(first + quadrant(node, body), body, depth+1);
+	}
+
+	//Which of the four children of this node the body belongs in
+	private int quadrant( int node, int body ) {
+		int quad = 0;
+		if( bodyX[body] >= nodeX[node] ) quad += 1;
+		if( bodyY[body] >= nodeY[node] ) quad += 2;
+		return quad;
+	}
+
+	private int newNode( float x, float y, float half ) {
+		if( nodeCount == nodeX.length )
+		{
+			int size = nodeCount*2;
+			nodeX = Arrays.copyOf(nodeX, size);
+			nodeY = Arrays.copyOf(nodeY, size);
+			nodeHalf = Arrays.copyOf(nodeHalf, size);
+			comX = Arrays.copyOf(comX, size);
+			comY = Arrays.copyOf(comY, size);
+			nodeMass = Arrays.copyOf(nodeMass, size);
+			nodeChild = Arrays.copyOf(nodeChild, size);
+			nodeBody = Arrays.copyOf(nodeBody, size);
+		}
+		nodeX[nodeCount] = x;
+		nodeY[nodeCount] = y;
+		nodeHalf[nodeCount] = half;
+		nodeChild[nodeCount] = -1;
+		nodeBody[nodeCount] = -1;
+		return nodeCount++;
+	}
+
+	/**
+	 * JJ> Walks the tree and adds the pull from every other body to the speed of body i. Groups that look
+	 *     small enough from where we are (size/distance < theta) are treated as a single mass.
+	 */
+	private void accelerate( int i, Vector speed ) {
+		final float x = bodyX[i], y = bodyY[i];
+		final float thetaSq = theta*theta;
+		float ax = 0, ay = 0;
+
+		int top = 0;
+		stack[top++] = 0;
+		while( top > 0 )
+		{
+			int n = stack[--top];
+			if( nodeMass[n] == 0 ) continue;
+
+			if( nodeChild[n] == -1 )
+			{
+				for( int b = nodeBody[n]; b != -1; b = bodyNext[b] )
+				{
+					if( b == i ) continue;
+					float dx = bodyX[b] - x, dy = bodyY[b] - y;
+					float pull = pull(bodyMass[b], dx*dx + dy*dy);
+					ax += dx * pull;
+					ay += dy * pull;
+				}
+				continue;
+			}
+
+			float dx = comX[n] - x, dy = comY[n] - y;
+			float distSq = dx*dx + dy*dy;
+			float size = nodeHalf[n]*2;
+			if( size*size < thetaSq * distSq )
+			{
+				float pull = pull(nodeMass[n], distSq);
+				ax += dx * pull;
+				ay += dy * pull;
+			}
+			else
+			{
+				if( top + 4 > stack.length ) stack = Arrays.copyOf(stack, stack.length*2);
+				for( int c = nodeChild[n]; c < nodeChild[n]+4; c++ ) stack[top++] = c;
+			}
+		}
+
+		speed.x += ax;
+		speed.y += ay;
+	}
+}
@@ -22,9 +22,6 @@ package gameEngine;
 import java.awt.*;
 import java.awt.geom.AffineTransform;
 import java.awt.image.BufferedImage;
-import java.awt.image.BufferedImageOp;
-import java.awt.image.ConvolveOp;
-import java.awt.image.Kernel;
 
 import javax.swing.ImageIcon;
 
@@ -33,20 +30,12 @@ import javax.swing.ImageIcon;
  * @author Johan Jansen and Anders Eie
  */
 public class Image2D {
-	final private static Kernel EMBOSS = new Kernel(3, 3,
-		    new float[] {
-		        -2, 0, 0,
-		        0, 1, 0,
-		        0, 0, 2});
-	final private static Kernel BLUR = new Kernel(3, 3,
-		    new float[] {
-	        1f/9f, 1f/9f, 1f/9f,
-	        1f/9f, 1f/9f, 1f/9f,
-	        1f/9f, 1f/9f, 1f/9f});
-	final private static int NO_RGB_TINT = 0xFFFFFFF; 
+	final static int NO_RGB_TINT = 0xFFFFFFFF; 
 	
 	private BufferedImage original;					//The image itself
+	private long contentId;							//Identifies the original image in the VariantCache
 	private BufferedImage processed;				//The image with effects added (rotation, alpha, etc.)
+	private VariantCache.Variant variant;			//Where processed comes from
 	private int width, height;
 
 	private boolean flipHorizontal = false;
@@ -77,6 +66,7 @@ public class Image2D {
         GameEngine.getGraphicsSettings(g);
         g.drawImage(load.getImage(), 0, 0, null ); 
         g.dispose();
+        contentId = VariantCache.getContentId(original);
         
 		width = original.getWidth();
 		height = original.getHeight();
@@ -96,11 +86,12 @@ public class Image2D {
 		ImageIcon load = new ImageIcon(ResourceMananger.getFilePath(fileName));
 		
 		//Load the image into a BufferedImage
-		original = GameEngine.createBufferedImage(imgWidth, imgHeight);
+		processed = original = GameEngine.createBufferedImage(imgWidth, imgHeight);
         Graphics2D g = original.createGraphics();
         GameEngine.getGraphicsSettings(g);
         g.drawImage(load.getImage(), 0, 0, imgWidth, imgHeight, null ); 
         g.dispose();
+        contentId = VariantCache.getContentId(original);
         
 		width = original.getWidth();
 		height = original.getHeight();
@@ -115,11 +106,22 @@ public class Image2D {
 		height = clone.getHeight();
 		
 		//Make a copy of the current state of the Image2D
-		original = GameEngine.createBufferedImage(width, height);
+		processed = original = GameEngine.createBufferedImage(width, height);
 		Graphics2D g = original.createGraphics();
         GameEngine.getGraphicsSettings(g);
         g.drawImage(clone.getSnapshot(), 0, 0, width, height, null ); 
         g.dispose();
+        contentId = VariantCache.getContentId(original);
+	}
+	
+	/**
+	 * JJ> Constructor for a Image2D that uses the image data of another one
+	 */
+	private Image2D( BufferedImage original, long contentId ) {
+		processed = this.original = original;
+		this.contentId = contentId;
+		width = original.getWidth();
+		height = original.getHeight();
 	}
 	
 	/**
@@ -173,6 +175,7 @@ public class Image2D {
 	public void verticalFlip() {  
 		flipVertical = !flipVertical;
     } 
+
 		
 	/**
 	 * JJ> Makes the image partially or fully transparent 
@@ -221,6 +224,13 @@ public class Image2D {
 	 * @return Returns: a Image representation of this Image2D
 	 */
 	public Image getSnapshot() {
+		
+		//Make sure we are up to date, even if we have to wait for it
+		if( !updateVariant() )
+		{
+			variant.run();
+			updateVariant();
+		}
 		return processed;
 	}
 	
@@ -257,25 +267,24 @@ public class Image2D {
 	 * @warning: All changes are permanently lost!
 	 */
 	public void reset() {
-		if(processed != null) processed.flush();
 		noChange = false;
 		currentAlpha = 1;
 		currentAngle = 0;
-		colorTint = 0xFFFFFFFF;
+		colorTint = NO_RGB_TINT;
 		flipHorizontal = flipVertical = false;
 		resize( original.getWidth(), original.getHeight() );
 	}
 	
 	/**
-	 * JJ> Flushes all reconstructible resources being used by this Image2D object. 
+	 * JJ> Flushes all reconstructible resources being used by this Image2D object. Only the variant
+	 *     belongs to this object, the original is shared with every instance() and snapshot copy so it
+	 *     is left alone.
 	 */
 	public void dispose() {
-		if(processed != null) 
-		{
-			processed.flush();
-			processed = null;
-		}
-		original.flush();
+		VariantCache.release(variant);
+		variant = null;
+		processed = original;
+		noChange = false;
 	}
 	
 	/**
@@ -284,6 +293,52 @@ public class Image2D {
 	public Image2D clone() {
 		return new Image2D(this);
 	}
+	
+	/**
+	 * JJ> Returns a new Image2D that looks exactly like this one and shares the same image data. Unlike
+	 *     clone() nothing is copied, so this is cheap enough to do for every single object. Rotation, alpha
+	 *     and flipping are per Image2D, changes to one does not affect the other.
+	 */
+	public Image2D instance() {
+		Image2D instance = new Image2D(original, contentId);
+		instance.width = width;
+		instance.height = height;
+		instance.flipHorizontal = flipHorizontal;
+		instance.flipVertical = flipVertical;
+		instance.blurEffect = blurEffect;
+		instance.embossEffect = embossEffect;
+		instance.currentAlpha = currentAlpha;
+		instance.currentAngle = currentAngle;
+		instance.colorTint = colorTint;
+		instance.processed = processed;
+		return instance;
+	}
+
+	/**
+	 * JJ> Makes this Image2D look exactly like another one does right now, sharing its image data. This is
+	 *     used for render snapshots: the copy can be drawn on another thread while the other one keeps
+	 *     changing. The copy never asks the VariantCache for anything by itself, but it holds its own
+	 *     reference to the variant so it is not thrown away while being drawn. Use dispose() to give it back.
+	 */
+	void copyFrom(Image2D other) {
+		other.updateVariant();
+		VariantCache.retain(other.variant);
+		VariantCache.release(variant);
+		original = other.original;
+		contentId = other.contentId;
+		processed = other.processed;
+		variant = other.variant;
+		width = other.width;
+		height = other.height;
+		flipHorizontal = other.flipHorizontal;
+		flipVertical = other.flipVertical;
+		blurEffect = other.blurEffect;
+		embossEffect = other.embossEffect;
+		currentAlpha = other.currentAlpha;
+		currentAngle = other.currentAngle;
+		colorTint = other.colorTint;
+		noChange = true;
+	}
 
 	/**
 	 * JJ> This draws this Image2D to a Graphics2D
@@ -296,39 +351,21 @@ public class Image2D {
 		//Don't draw invisible images
 		if( currentAlpha == 0 ) return;
 		
-		//Re-render if there were changes on the image
-		if( !noChange )
+		//Pick up any changes on the image
+		boolean ready = updateVariant();
+		
+        //Set the Graphics composite to Alpha (if any)
+		Composite reset = g.getComposite();
+		if( currentAlpha < 1 ) g.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, currentAlpha));  
+		
+		//Rotated images are drawn from a pre-rotated copy, which is a lot faster than a rotating blit
+		int buckets = GameEngine.getConfig().getRotationBuckets();
+		if( ready && currentAngle != 0 && buckets > 0 )
 		{
-			//Create a buffer from the original image			
-			processed = GameEngine.createBufferedImage(width, height);
-			
-			Graphics2D r = processed.createGraphics();
-	        GameEngine.getGraphicsSettings(r);
-	        r.drawImage(original, 0, 0, width, height, null);
-				
-			//Blur effect
-			if( blurEffect )
-			{
-				BufferedImageOp op = new ConvolveOp( BLUR );
-				processed = op.filter(processed, null);
-			}
-						
-			//Emboss effect
-			if( embossEffect )
-			{
-				BufferedImageOp op = new ConvolveOp( EMBOSS );
-				processed = op.filter(processed, null);
-			}
-				
-			//Color tint
-			if( colorTint != NO_RGB_TINT )
-				for(int i = 0; i < processed.getWidth(); i++)
-					for(int j = 0; j < processed.getHeight(); j++)
-						processed.setRGB( i, j, processed.getRGB(i, j) & colorTint );
-	
-			//All done! Free any resources...
-			r.dispose();
-	        noChange = true;
+			RotationCache.Entry rotated = RotationCache.get(variant, flipHorizontal, flipVertical, currentAngle, buckets);
+			g.drawImage(rotated.image, x + rotated.offsetX, y + rotated.offsetY, null);
+			g.setComposite(reset);
+			return;
 		}
 		
 		//Correct position
@@ -349,10 +386,9 @@ public class Image2D {
 			
 		//Rotate
 		if(currentAngle != 0) xs.rotate(currentAngle, width/2, height/2);
-
-        //Set the Graphics composite to Alpha (if any)
-		Composite reset = g.getComposite();
-		if( currentAlpha < 1 ) g.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, currentAlpha));  
+		
+		//Still waiting for the new version, stretch the old one to the new size meanwhile
+		if( !ready ) xs.scale( width / (double)processed.getWidth(), height / (double)processed.getHeight() );
 
 		//Now do the actual drawing
 		g.drawImage(processed, xs, null);
@@ -360,4 +396,24 @@ public class Image2D {
 		//Remove alpha
 		g.setComposite(reset);
 	}
+	
+	/**
+	 * JJ> Starts making a new processed image if there were changes on the image. This happens in the
+	 *     background, so until it is ready we keep using the old one.
+	 * @return true if processed is up to date with all changes
+	 */
+	private boolean updateVariant() {
+		if( !noChange )
+		{
+			VariantCache.Variant next = VariantCache.acquire(original, contentId, width, height, blurEffect, embossEffect, colorTint);
+			VariantCache.release(variant);
+			variant = next;
+			noChange = true;
+		}
+		
+		BufferedImage image = variant.image;
+		if( image == null ) return false;
+		processed = image;
+		return true;
+	}
 }
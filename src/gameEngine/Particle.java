@@ -18,16 +18,11 @@
 //********************************************************************************************
 package gameEngine;
 
-import java.awt.AlphaComposite;
-import java.awt.Color;
-import java.awt.Graphics2D;
-import java.awt.RenderingHints;
-import java.awt.geom.AffineTransform;
 import java.util.ArrayList;
 import java.util.Random;
 
-import javax.swing.ImageIcon;
-
+import gameEngine.ParticleTemplate.BlendMode;
+import gameEngine.TextureAtlas.Sprite;
 import narwhal.AI;
 import narwhal.Spaceship;
 import narwhal.Weapon;
@@ -37,16 +32,19 @@ public class Particle extends Physics {
 	//Object functions
 	private boolean requestDelete;		//Remove me?
 	private boolean onScreen;			//Was it on the screen this update?
+	int updateFrame;					//Last ParticleEngine update this particle was updated in
+	int index;							//Where we are in the ParticleEngine list, -1 if unused
+	private static final Random rand = new Random();
 	private ParticleTemplate template;
-	public ArrayList<GameObject> collisionList;	//List of all GameObject we have damaged
+	public final ArrayList<GameObject> collisionList;	//List of all GameObject we have damaged
 	
-	private ImageIcon image;
+	private Sprite image;
 
 	private Physics attached;			//Who is it attached to?
 	private Spaceship homing;			//Who are we following?
 	public boolean jammed;				//Jammed by ECM
 
-	public String team;					//Who's side is it on?
+	public int team;					//Who's side is it on? See Team
 	public Weapon weapon;
 	
 	private Physics spawner;			//Who spawned us?
@@ -66,10 +64,34 @@ public class Particle extends Physics {
 	
 	private float velocity;				//Movement
 	private float facingAdd;
+	
+	private float lastX, lastY;				//Position before the current update
 			
 	
-	public Particle( Vector spawnPos, ParticleTemplate template, float baseFacing, Physics spawner, Weapon damage ) {
-		Random rand = new Random();
+	/**
+	 * JJ> Particles are only constructed by the ParticleEngine pool, use spawn() to bring one to life
+	 */
+	Particle() {
+		pos = new Vector();
+		speed = new Vector();
+		collisionList = new ArrayList<GameObject>();
+		shape = Shape.CIRCLE;
+		anchored = false;
+		index = -1;
+	}
+	
+	/**
+	 * JJ> Restarts the random numbers shared by every particle
+	 */
+	static void setSeed( long seed ) {
+		rand.setSeed(seed);
+	}
+	
+	/**
+	 * JJ> Resets every value of this particle so that it becomes a brand new particle. This is used
+	 *     instead of a constructor so that the ParticleEngine can reuse particles without allocating.
+	 */
+	void spawn( Vector spawnPos, ParticleTemplate template, float baseFacing, Physics spawner, Weapon damage ) {
 		float baseRotation = 0;
 		
 		//Default stuff
@@ -78,6 +100,9 @@ public class Particle extends Physics {
 		requestDelete = false;
 		onScreen = false;
 		jammed = false;
+		homing = null;
+		attached = null;
+		collisionList.clear();
 
 		//Randomize our particle image from the list of images our template
 		//has given us. This list could be 1 in size.
@@ -90,14 +115,17 @@ public class Particle extends Physics {
 		alphaAdd = template.alphaAdd;
 		sizeAdd = template.sizeAdd;			
 		weapon = damage;
-		team = "NEUTRAL";
+		team = Team.NEUTRAL;
+		pos.x = spawnPos.x;
+		pos.y = spawnPos.y;
+		velocity = template.speed;
 
 		//Set some values if we have a spawner
 		if( spawner != null )
 		{
 			//We keep the same angle as the spawner
 			if(spawner instanceof Particle)
-				baseRotation = ((Particle)spawner).angle;
+				baseRotation = ((Particle)spawner).getAngle();
 			else baseRotation = spawner.direction;
 			
 			//Get homing target if needed
@@ -110,20 +138,15 @@ public class Particle extends Physics {
 			if( template.attached )
 			{
 				attached = spawner;
-				pos = spawner.pos;
+				pos.x = spawner.pos.x;
+				pos.y = spawner.pos.y;
 				velocity = 0;
 			}
-			else
-			{
-				attached = null;
-				pos = spawnPos.clone();
-				velocity = template.speed;
-			}
 			
 			//Scale this particle initial size to spawner's size
 			if( template.scaleToSpawner )
 			{
-				size *= ((float)spawner.radius*2) / ((float)image.getIconWidth());
+				size *= ((float)spawner.radius*2) / ((float)image.getWidth());
 			}
 			
 			//We share team with our spawner
@@ -159,23 +182,45 @@ public class Particle extends Physics {
 
 		//Physics stuff
 		canCollide = template.canCollide;
-		shape = Shape.CIRCLE;
-		anchored = false;
-		setRadius( image.getIconWidth()/4 );
-		collisionList = new ArrayList<GameObject>();
+		setRadius( image.getWidth()/4 );
 		mass 		= ((float)Math.PI * radius * radius);
 		
 		//Don't collide with spawner
 		if( spawner instanceof Spaceship ) collisionList.add((Spaceship)spawner);
 			
 		//TODO: change this somehow
-		if(spawner == null) 	speed = new Vector();
-		else					speed = spawner.getSpeed().clone();
+		if(spawner == null)
+		{
+			speed.x = 0;
+			speed.y = 0;
+		}
+		else
+		{
+			speed.x = spawner.getSpeed().x;
+			speed.y = spawner.getSpeed().y;
+		}
+		
+		lastX = pos.x;
+		lastY = pos.y;
 		
 		//Play spawn sound
 		if( template.soundSpawn != null ) template.soundSpawn.play3D(pos, GameEngine.getCameraPos());
 	}
-			
+	
+	/**
+	 * JJ> Drops every reference this particle holds so that dead objects can be garbage collected
+	 *     while the particle sits unused in the pool
+	 */
+	void release() {
+		requestDelete = true;
+		spawner = null;
+		attached = null;
+		homing = null;
+		weapon = null;
+		collisionList.clear();
+		index = -1;
+	}
+	
 	/**
 	 * @return true if this particle is marked for removal
 	 */
@@ -187,10 +232,13 @@ public class Particle extends Physics {
 	 * JJ> Keeps a particle up to date with movement, rotation, etc.
 	 */
 	final public void update() {
+		lastX = pos.x;
+		lastY = pos.y;
 				
 		if( attached != null )
 		{
-			pos = attached.pos.plus(new Vector(attached.radius, attached.radius));
+			pos.x = attached.pos.x + attached.radius;
+			pos.y = attached.pos.y + attached.radius;
 		}
 		
 		//Update effects for next frame
@@ -213,13 +261,12 @@ public class Particle extends Physics {
 			//Jamming effect
 			if( jammed )
 			{
-				Random rand = new Random();
 				facing += rand.nextFloat()/4 - rand.nextFloat()/4;
 			}
 					
 			else
 			{
-				float heading = homing.getPosCentre().minus(pos).getAngle() - facing;
+				float heading = (float)Math.atan2(homing.getCentreY() - pos.y, homing.getCentreX() - pos.x) - facing;
 				if 		(heading > Math.PI)  heading = -( ((float)Math.PI*2) - heading);
 				else if (heading < -Math.PI) heading = ( ((float)Math.PI*2) + heading);
 				facing += heading * (velocity/200);				
@@ -233,65 +280,47 @@ public class Particle extends Physics {
 		facing %= 2 * Math.PI;
 			
 		//Movement
-		Vector move = new Vector(velocity, facing, true);
-		move.add(getSpeed());
-		pos.add(move);
+		pos.x += (float)Math.cos(facing) * velocity + speed.x;
+		pos.y += (float)Math.sin(facing) * velocity + speed.y;
 		
 		//Figure out if we are inside the screen or not
-		onScreen = GameEngine.isInFrame( this.pos, new Vector() );
+		onScreen = GameEngine.isInFrame( pos.x, pos.y, 0, 0 );
 	}
 	
 	/**
-	 * JJ> This performs all rendering operations for a single particle.
-	 * @param g Which Graphics2D object to do the rendering to
+	 * JJ> Is this particle drawn this frame?
 	 */
-	final public void draw(Graphics2D g) {
-
-		//Only draw if it is okay to draw
-		if( !onScreen || requestDelete  ) return;
-		g = (Graphics2D)g.create();
-
-		//We make particles as fast as possible
-		g.setRenderingHint( RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_OFF );
-		g.setRenderingHint( RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR );
-	   	g.setRenderingHint( RenderingHints.KEY_ALPHA_INTERPOLATION, RenderingHints.VALUE_ALPHA_INTERPOLATION_SPEED );
-		g.setRenderingHint( RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_SPEED );
-	   	g.setRenderingHint( RenderingHints.KEY_DITHERING, RenderingHints.VALUE_DITHER_DISABLE );
-
-		//Calculate new width and height
-		int w = (int) ( image.getIconWidth() * size);
-		int h = (int) ( image.getIconHeight() * size);
-
-		//Calculate position
-		Vector offset = GameEngine.getCameraPos();
-		int xPos = pos.getX() - w/2 - offset.getX();
-		int yPos = pos.getY() - h/2 - offset.getY();
-		
-        //Do any alpha
-		if(alpha < 1) g.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, alpha));
-
-		//Rotate before drawing
-		AffineTransform xs = g.getTransform(); 
-		xs.translate(xPos, yPos);
-		xs.rotate(angle, w/2, h/2);
-		xs.scale(size, size);
-		
-		//Now draw it to screen after doing all render operations
-		g.drawImage( image.getImage(), xs, null);
-		
-		//Draw collision circle
-		if( GameEngine.getConfig().debugMode )
-		{
-			g.setColor(Color.YELLOW);
-			Vector drawPos = pos.minus(new Vector(radius, radius)).minus(offset);
-			g.drawOval( drawPos.getX(), drawPos.getY(), (int)radius*2, (int)radius*2);
-		}
+	boolean isVisible() {
+		return onScreen && !requestDelete;
+	}
+	
+	Sprite getSprite() {
+		return image;
+	}
+	
+	/**
+	 * JJ> Adds how this particle looks right now to a render snapshot
+	 */
+	void capture(RenderSnapshot snapshot) {
+		snapshot.addParticle(image, lastX, lastY, pos.x, pos.y, getAngle(), getSize(), getAlpha(), radius, template.blend == BlendMode.ADD);
 	}
 	
 	public float getFacing() {
 		return facing;
 	}
 	
+	public float getAngle() {
+		return angle;
+	}
+	
+	public float getAlpha() {
+		return alpha;
+	}
+	
+	public float getSize() {
+		return size;
+	}
+	
 	public ParticleTemplate getParticleTemplate(){
 		return template;
 	}
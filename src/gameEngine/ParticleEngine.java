@@ -20,14 +20,21 @@ package gameEngine;
 
 
 import gameEngine.ParticleTemplate.InvalidParticleException;
+import gameEngine.TextureAtlas.Sprite;
 
+import java.awt.AlphaComposite;
+import java.awt.Color;
+import java.awt.Composite;
 import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.image.BufferedImage;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 
-import javax.swing.ImageIcon;
-
-import narwhal.Planet;
 import narwhal.Spaceship;
 import narwhal.Weapon;
 
@@ -41,7 +48,30 @@ import narwhal.Weapon;
 public class ParticleEngine {
 	private static final int MAX_PARTICLES = 512;
 	private HashMap<String, ParticleTemplate> particleMap;
+	private final TextureAtlas atlas;			//All particle images
 	private ArrayList<Particle> particleList;
+	private ArrayList<Particle> freeList;		//Unused particles ready to be spawned again
+	
+	//Spatial lookups used for collision detection
+	private static final int PARTICLE_CELL_SIZE = 128;
+	private SpatialGrid<Particle> particleGrid;
+	private int particleGridSize;
+	private int updateFrame;
+	private final ArrayList<GameObject> nearbyEntities = new ArrayList<GameObject>();
+	private final ArrayList<Particle> nearbyParticles = new ArrayList<Particle>();
+	
+	//Rendering, particles are drawn grouped by atlas page and transparency
+	private static final int ALPHA_LEVELS = 32;
+	private static final AlphaComposite[] ALPHA_COMPOSITE = new AlphaComposite[ALPHA_LEVELS];
+	private final IdentityHashMap<BufferedImage, Integer> pageNumber = new IdentityHashMap<BufferedImage, Integer>();
+	private long[] drawOrder = new long[MAX_PARTICLES+1];
+	private final AffineTransform drawTransform = new AffineTransform();
+	private ParticleRasterizer rasterizer;		//Software renderer, only made if used
+	
+	static {
+		for( int i = 0; i < ALPHA_LEVELS; i++ ) 
+			ALPHA_COMPOSITE[i] = AlphaComposite.getInstance(AlphaComposite.SRC_OVER, i / (float)ALPHA_LEVELS);
+	}
 	
 	/**
 	 * JJ> Loads all particle images into a hash map for later use
@@ -51,7 +81,9 @@ public class ParticleEngine {
 		
 		//Ready array lists
 		particleMap = new HashMap<String, ParticleTemplate>();
-		particleList = new ArrayList<Particle>();
+		particleList = new ArrayList<Particle>(MAX_PARTICLES+1);
+		freeList = new ArrayList<Particle>(MAX_PARTICLES+1);
+		atlas = new TextureAtlas();
 
 		//Load all particles into the hash map
 		for( String fileName : fileList )
@@ -64,7 +96,7 @@ public class ParticleEngine {
 			//Only load it if the image was loaded properly
 			try 
 			{
-				load = new ParticleTemplate(fileName);
+				load = new ParticleTemplate(fileName, atlas);
 				particleMap.put( hash, load );
 			} 
 			catch (InvalidParticleException e) 
@@ -74,11 +106,33 @@ public class ParticleEngine {
 		}
 	}
 			
-	public void update( ArrayList<GameObject> entities, int universeSize ) {
+	/**
+	 * JJ> Updates every particle and does collision detection between particles and GameObjects and
+	 *     between particles themselves. Collisions are found through spatial grids, so each particle
+	 *     only has to be tested against whatever is close to it.
+	 * @param entityGrid Spatial grid containing every GameObject (rebuilt by Physics.updatePhysics)
+	 * @param universeSize How big the universe is
+	 */
+	public void update( SpatialGrid<GameObject> entityGrid, int universeSize ) {
 		
 		//Calculate universe size
 		final float uniX = universeSize * GameEngine.getScreenWidth();
 		final float uniY = universeSize * GameEngine.getScreenHeight();
+		
+		//Particles that can be hit by other particles are bucketed before anything moves
+		if( particleGrid == null || particleGridSize != universeSize )
+		{
+			particleGrid = new SpatialGrid<Particle>(uniX, uniY, PARTICLE_CELL_SIZE);
+			particleGridSize = universeSize;
+		}
+		particleGrid.clear();
+		for( int i = 0; i < particleList.size(); i++ )
+		{
+			Particle prt = particleList.get(i);
+			if( !prt.canCollide || prt.getParticleTemplate().subAtomicParticle ) continue;
+			particleGrid.insert(prt, prt.radius);
+		}
+		updateFrame++;
 
 		//Update particle effects
 		for( int i = 0; i < particleList.size(); i++ )
@@ -86,27 +140,31 @@ public class ParticleEngine {
 			Particle prt = particleList.get(i);
 			ParticleTemplate template = prt.getParticleTemplate();
 			
-			//Remove unused particles
+			//Remove unused particles (the last particle is moved into this slot, so do this slot again)
 			if( prt.requestsDelete() )
 			{
 				deleteParticle( prt );
+				i--;
 				continue;
 			}
 			
 			//Update this particle
 			prt.update();
+			prt.updateFrame = updateFrame;
 			
+			boolean deleted = false;
 			if( prt.canCollide )
 			{
 				//Collision detection between particles and GameObjects
-				for(int j = 0; j < entities.size(); j++ )
+				entityGrid.query(prt.pos.x, prt.pos.y, prt.radius, nearbyEntities);
+				for(int j = 0; j < nearbyEntities.size(); j++ )
 				{	
-					GameObject object  = entities.get(j);
+					GameObject object = nearbyEntities.get(j);
 
 					if( prt.collidesWith(object) )
 					{
 						//Skip if no friendly fire
-						if( !template.friendlyFire && (object instanceof Spaceship) && prt.team.equals(((Spaceship)object).team) ) continue;
+						if( !template.friendlyFire && object.getArchetype().isSpaceship() && Team.isAlly(prt.team, ((Spaceship)object).team) ) continue;
 												
 						//Damage them
 						if( prt.weapon != null )
@@ -123,42 +181,59 @@ public class ParticleEngine {
 						
 						//Die away if told to
 						if( template.collisionEnd && ( !template.subAtomicParticle 
-								|| object instanceof Planet ) )
+								|| object.getArchetype() == GameObject.Archetype.PLANET ) )
 							{
 								deleteParticle(prt);
+								deleted = true;
 								break;
 							}
 					}
 				}
 				
-				//Particle on particle collision
-				if( !template.subAtomicParticle ) for( int j = i+1; j < particleList.size(); j++ )
+				//Particle on particle collision, only against particles that have not been updated yet
+				//this frame so that every pair is only tested once
+				if( !deleted && !template.subAtomicParticle )
 				{
-					Particle cPrt = particleList.get(j);
-					ParticleTemplate cTemplate = cPrt.getParticleTemplate();
-					
-					//Only do collisions if one of us can collide
-					if( cTemplate.subAtomicParticle || (!cTemplate.physics && !template.physics) ) continue;					
-					
-					//Don't collide with ourself
-					if( prt == cPrt ) continue;
-					
-					if( prt.collidesWith(cPrt) )
+					particleGrid.query(prt.pos.x, prt.pos.y, prt.radius, nearbyParticles);
+					for( int j = 0; j < nearbyParticles.size(); j++ )
 					{
-						prt.collision(cPrt);
+						Particle cPrt = nearbyParticles.get(j);
+						ParticleTemplate cTemplate = cPrt.getParticleTemplate();
+						
+						//Skip particles that are already done or removed this frame
+						if( cPrt.updateFrame == updateFrame || cPrt.requestsDelete() ) continue;
 						
-						//Destroy particles if needed
-						if( cTemplate.collisionEnd ) deleteParticle(cPrt);
-						if( template.collisionEnd )
+						//Only do collisions if one of us can collide
+						if( !cTemplate.physics && !template.physics ) continue;					
+						
+						//Don't collide with ourself
+						if( prt == cPrt ) continue;
+						
+						if( prt.collidesWith(cPrt) )
 						{
-							deleteParticle(prt);
-							break;
+							prt.collision(cPrt);
+							
+							//Destroy particles if needed
+							if( cTemplate.collisionEnd ) deleteParticle(cPrt);
+							if( template.collisionEnd )
+							{
+								deleteParticle(prt);
+								deleted = true;
+								break;
+							}
 						}
 					}
 				}
 				
 			}
 			
+			//We were removed and the last particle moved into our slot
+			if( deleted )
+			{
+				i--;
+				continue;
+			}
+			
 			// Quick implement of universe bounds			
 			if 		(prt.pos.x < 0) 	prt.pos.x += uniX;
 			else if (prt.pos.x > uniX)  prt.pos.x %= uniX;
@@ -181,14 +256,156 @@ public class ParticleEngine {
 			return false;
 		}
 		
+		//Reuse a unused particle if we have any
+		Particle prt;
+		if( freeList.isEmpty() ) prt = new Particle();
+		else					 prt = freeList.remove( freeList.size()-1 );
+		
 		//Nope everything went well, add it to the active list!
-		particleList.add( new Particle(position, type, facing, spawner, damage) );
+		prt.spawn(position, type, facing, spawner, damage);
+		prt.updateFrame = updateFrame;
+		prt.index = particleList.size();
+		particleList.add( prt );
 		return true;
 	}
 
-	public void render(Graphics2D g) {
-		//Draw all particles
-		for(int i = 0; i < particleList.size(); i++) particleList.get(i).draw(g);
+	/**
+	 * JJ> Adds every visible particle to a render snapshot. Called by the simulation after update().
+	 */
+	public void capture(RenderSnapshot snapshot) {
+		for( int i = 0; i < particleList.size(); i++ )
+		{
+			Particle prt = particleList.get(i);
+			if( prt.isVisible() && prt.getAlpha() > 0 ) prt.capture(snapshot);
+		}
+	}
+
+	/**
+	 * JJ> Draws all particles in a render snapshot. They are sorted by atlas page and transparency so that the
+	 *     Graphics2D state only needs to be changed once for every group instead of once for every particle.
+	 *     Transparency is rounded to one of ALPHA_LEVELS steps. Only the snapshot is used, so this can be done
+	 *     while the next update is running.
+	 */
+	public void render(Graphics2D g, RenderSnapshot snapshot) {
+		float step = snapshot.getInterpolation(1000000000L / GameEngine.getConfig().simulationRate);
+		if( GameEngine.getConfig().softwareParticles )
+		{
+			renderSoftware(g, snapshot, step);
+			return;
+		}
+		if( drawOrder.length < snapshot.particleCount ) drawOrder = new long[snapshot.particleCount];
+		
+		//Sort key is page number, then transparency level and last the particle index
+		int count = 0;
+		for( int i = 0; i < snapshot.particleCount; i++ )
+		{
+			int level = Math.round(snapshot.particleAlpha[i] * ALPHA_LEVELS);
+			if( level <= 0 ) continue;
+			
+			BufferedImage page = snapshot.particleSprite[i].getPage();
+			Integer number = pageNumber.get(page);
+			if( number == null )
+			{
+				number = pageNumber.size();
+				pageNumber.put(page, number);
+			}
+			
+			drawOrder[count++] = (long)(number * (ALPHA_LEVELS+1) + level) << 32 | i;
+		}
+		if( count == 0 ) return;
+		Arrays.sort(drawOrder, 0, count);
+
+		//We make particles as fast as possible
+		g = (Graphics2D)g.create();
+		g.setRenderingHint( RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_OFF );
+		g.setRenderingHint( RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR );
+	   	g.setRenderingHint( RenderingHints.KEY_ALPHA_INTERPOLATION, RenderingHints.VALUE_ALPHA_INTERPOLATION_SPEED );
+		g.setRenderingHint( RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_SPEED );
+	   	g.setRenderingHint( RenderingHints.KEY_DITHERING, RenderingHints.VALUE_DITHER_DISABLE );
+		AffineTransform base = g.getTransform();
+		Composite opaque = g.getComposite();
+
+		//Draw them group by group
+		int currentLevel = ALPHA_LEVELS;
+		for( int i = 0; i < count; i++ )
+		{
+			int level = (int)((drawOrder[i] >>> 32) % (ALPHA_LEVELS+1));
+			if( level != currentLevel )
+			{
+				g.setComposite( level == ALPHA_LEVELS ? opaque : ALPHA_COMPOSITE[level] );
+				currentLevel = level;
+			}
+			int index = (int)drawOrder[i];
+			getTransform(snapshot, index, step, base, drawTransform);
+			snapshot.particleSprite[index].draw(g, drawTransform);
+		}
+		
+		//Draw collision circles
+		if( GameEngine.getConfig().debugMode )
+		{
+			g.setTransform(base);
+			g.setComposite(opaque);
+			for( int i = 0; i < count; i++ ) drawCollision(g, snapshot, (int)drawOrder[i]);
+		}
+		
+		g.dispose();
+	}
+	
+	/**
+	 * JJ> Draws all particles in a render snapshot with the ParticleRasterizer instead of Java2D. This is
+	 *     the only renderer that supports additive blending.
+	 */
+	private void renderSoftware(Graphics2D g, RenderSnapshot snapshot, float step) {
+		if( rasterizer == null ) rasterizer = new ParticleRasterizer();
+		
+		AffineTransform base = g.getTransform();
+		rasterizer.begin(GameEngine.getScreenWidth(), GameEngine.getScreenHeight());
+		for( int i = 0; i < snapshot.particleCount; i++ )
+		{
+			getTransform(snapshot, i, step, base, drawTransform);
+			rasterizer.add(snapshot.particleSprite[i], drawTransform, snapshot.particleAlpha[i], snapshot.particleAdd[i]);
+		}
+		rasterizer.finish(g);
+		
+		//Draw collision circles
+		if( GameEngine.getConfig().debugMode )
+			for( int i = 0; i < snapshot.particleCount; i++ ) drawCollision(g, snapshot, i);
+	}
+	
+	/**
+	 * JJ> Calculates where on the screen a particle is drawn
+	 * @param step How far between the last and current position of the particle
+	 * @param base Transform of the screen
+	 * @param xs Set to the transform from sprite space to the screen
+	 */
+	private static void getTransform(RenderSnapshot snapshot, int i, float step, AffineTransform base, AffineTransform xs) {
+		float angle = snapshot.particleAngle[i], size = snapshot.particleSize[i];
+		Sprite image = snapshot.particleSprite[i];
+
+		//Calculate new width and height
+		int w = (int) ( image.getWidth() * size);
+		int h = (int) ( image.getHeight() * size);
+
+		//Calculate position
+		Vector offset = GameEngine.getViewPos();
+		int xPos = (int)GameEngine.interpolate(snapshot.particleLastX[i], snapshot.particleX[i], step) - w/2 - offset.getX();
+		int yPos = (int)GameEngine.interpolate(snapshot.particleLastY[i], snapshot.particleY[i], step) - h/2 - offset.getY();
+
+		//Rotate before drawing
+		xs.setTransform(base);
+		xs.translate(xPos, yPos);
+		xs.rotate(angle, w/2, h/2);
+		xs.scale(size, size);
+	}
+	
+	/**
+	 * JJ> Draws the collision circle of a particle
+	 */
+	private static void drawCollision(Graphics2D g, RenderSnapshot snapshot, int i) {
+		Vector offset = GameEngine.getViewPos();
+		float radius = snapshot.particleRadius[i];
+		g.setColor(Color.YELLOW);
+		g.drawOval( (int)(snapshot.particleX[i] - radius) - offset.getX(), (int)(snapshot.particleY[i] - radius) - offset.getY(), (int)radius*2, (int)radius*2);
 	}
 	
 	/**
@@ -207,6 +424,9 @@ public class ParticleEngine {
 	public void deleteParticle( Particle prt ){
 		ParticleTemplate template = prt.getParticleTemplate();
 		
+		//Already removed
+		if( prt.index < 0 ) return;
+		
 		//Play end sound
 		if( template.soundEnd != null )template. soundEnd.play3D( prt.pos, GameEngine.getCameraPos() );
 		
@@ -221,14 +441,47 @@ public class ParticleEngine {
 			}
 		}
 		
-		//Free it from the particle list
-		particleList.remove(prt);
+		//Free it from the particle list by moving the last particle into our slot
+		Particle last = particleList.remove( particleList.size()-1 );
+		if( last != prt )
+		{
+			particleList.set(prt.index, last);
+			last.index = prt.index;
+		}
+		
+		//Put it back in the pool
+		prt.release();
+		freeList.add(prt);
 	}	  
 	
-	public ImageIcon getParticleIcon(String template) {
-		return particleMap.get(template).image.get(0);
+	/**
+	 * JJ> Removes every particle without doing any end effects, they are all put back in the pool
+	 */
+	public void clear() {
+		for( int i = 0; i < particleList.size(); i++ )
+		{
+			Particle prt = particleList.get(i);
+			prt.release();
+			freeList.add(prt);
+		}
+		particleList.clear();
 	}
 	
+	/**
+	 * JJ> Restarts the random numbers used by particles, so that the same game seed always gives the same particles
+	 */
+	public void setSeed( long seed ) {
+		Particle.setSeed(seed);
+	}
+	
+	public Image getParticleImage(String template) {
+		return particleMap.get(template).image.get(0).getImage();
+	}
+	
+	/**
+	 * JJ> Gets every active particle. This list must not be modified, use spawnParticle(), 
+	 *     deleteParticle() or clear() instead.
+	 */
 	public ArrayList<Particle> getParticleList(){
 		return particleList;
 	}
@@ -0,0 +1,434 @@
+//********************************************************************************************
+//*
+//*    This file is part of Project Narwhal.
+//*
+//*    Project Narwhal is free software: you can redistribute it and/or modify it
+//*    under the terms of the GNU General Public License as published by
+//*    the Free Software Foundation, either version 3 of the License, or
+//*    (at your option) any later version.
+//*
+//*    Project Narwhal is distributed in the hope that it will be useful, but
+//*    WITHOUT ANY WARRANTY; without even the implied warranty of
+//*    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//*    General Public License for more details.
+//*
+//*    You should have received a copy of the GNU General Public License
+//*    along with Project Narwhal.  If not, see <http://www.gnu.org/licenses/>.
+//*
+//********************************************************************************************
+package gameEngine;
+
+import java.awt.Composite;
+import java.awt.CompositeContext;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import gameEngine.TextureAtlas.Sprite;
+
+/**
+ * JJ> Draws particles without Java2D. Every particle is written directly into a int[] framebuffer
+ *     of premultiplied ARGB pixels, which is then drawn over the scene with one single blit. Scenes
+ *     with lots of big translucent explosions are faster since Java2D does not need to composite every
+ *     particle on its own. Additive particles go into a second framebuffer that is added to the scene
+ *     afterwards, so they always end up on top of normal particles.
+ *     The screen is split into tiles that are drawn in parallel, each tile draws its particles in the
+ *     same order as they were added so the result is the same no matter how many threads are used.
+ *     Sprites are sampled with nearest neighbour, the same as the Java2D particle renderer does.
+ * @author Johan Jansen and Anders Eie
+ */
+final class ParticleRasterizer {
+	private static final int TILE_SIZE = 64;
+	private static final int TILES_PER_TASK = 4;			//Don't split work into smaller pieces than this
+	
+	//The framebuffers
+	private BufferedImage framebuffer, glowbuffer;
+	private int[] pixels;						//Premultiplied ARGB
+	private int[] glow;							//RGB that is added to the scene
+	private int glowLeft, glowTop, glowRight, glowBottom;
+	private int width, height;
+	private int tileCols, tileRows;
+	private boolean[] tileDirty;							//Does this tile need to be cleared?
+	
+	//Premultiplied pixels of every sprite with a empty border of one pixel. Each sprite has its own array
+	//instead of using the whole atlas page, which keeps the pixels close together in memory.
+	private final IdentityHashMap<Sprite, int[]> spritePixels = new IdentityHashMap<Sprite, int[]>();
+	
+	//Every particle to draw this frame. Transforms go from the screen to the sprite.
+	private int count;
+	private float[] m00 = new float[0], m01 = new float[0], m02 = new float[0];
+	private float[] m10 = new float[0], m11 = new float[0], m12 = new float[0];
+	private int[] minX = new int[0], minY = new int[0], maxX = new int[0], maxY = new int[0];
+	private int[][] source = new int[0][];
+	private int[] spriteWidth = new int[0], spriteHeight = new int[0];
+	private int[] alpha = new int[0];						//0 to 256
+	private boolean[] additive = new boolean[0];
+	
+	//Which particles touch each tile, linked lists stored in flat arrays like the SpatialGrid
+	private int[] tileHead = new int[0];
+	private int[] entryNext = new int[256];
+	private int[] entryParticle = new int[256];
+	private int entryCount;
+	
+	/**
+	 * JJ> Adds the colour of the source to the destination, used for the additive framebuffer.
+	 *     Java2D has no additive composite of its own.
+	 */
+	private static final class AdditiveComposite implements Composite, CompositeContext {
+		private int[] source = new int[0], target = new int[0];
+		private boolean packed;					//Is the destination packed 8-bit RGB in a int?
+		
+		public CompositeContext createContext( ColorModel srcColorModel, ColorModel dstColorModel, RenderingHints hints ) {
+			packed = false;
+			if( dstColorModel instanceof DirectColorModel && dstColorModel.getTransferType() == DataBuffer.TYPE_INT )
+			{
+				DirectColorModel model = (DirectColorModel)dstColorModel;
+				packed = model.getRedMask() == 0xFF0000 && model.getGreenMask() == 0xFF00 && model.getBlueMask() == 0xFF;
+			}
+			return this;
+		}
+
+		public void compose( Raster src, Raster dstIn, WritableRaster dstOut ) {
+			int width = Math.min(src.getWidth(), dstIn.getWidth()), height = Math.min(src.getHeight(), dstIn.getHeight());
+			int bands = packed ? 1 : dstIn.getNumBands();
+			if( source.length < width*3 ) source = new int[width*3];
+			if( target.length < width*bands ) target = new int[width*bands];
+			
+			for( int y = 0; y < height; y++ )
+			{
+				//Fast path, work on whole pixels
+				if( packed )
+				{
+					src.getDataElements(src.getMinX(), src.getMinY() + y, width, 1, source);
+					dstIn.getDataElements(dstIn.getMinX(), dstIn.getMinY() + y, width, 1, target);
+					for( int x = 0; x < width; x++ )
+					{
+						int add = source[x];
+						if( add == 0 ) continue;
+						int dst = target[x];
+						int r = Math.min(255, ((dst >> 16) & 0xFF) + ((add >> 16) & 0xFF));
+						int g = Math.min(255, ((dst >> 8) & 0xFF) + ((add >> 8) & 0xFF));
+						int b = Math.min(255, (dst & 0xFF) + (add & 0xFF));
+						target[x] = (dst & 0xFF000000) | r << 16 | g << 8 | b;
+					}
+					dstOut.setDataElements(dstOut.getMinX(), dstOut.getMinY() + y, width, 1, target);
+					continue;
+				}
+				
+				//Anything else is RGB(A) with one sample per band
+				src.getPixels(src.getMinX(), src.getMinY() + y, width, 1, source);
+				dstIn.getPixels(dstIn.getMinX(), dstIn.getMinY() + y, width, 1, target);
+				for( int x = 0; x < width; x++ )
+					for( int band = 0; band < 3; band++ )
+						target[x*bands + band] = Math.min(255, target[x*bands + band] + source[x*3 + band]);
+				dstOut.setPixels(dstOut.getMinX(), dstOut.getMinY() + y, width, 1, target);
+			}
+		}
+
+		public void dispose() {
+			//Reused, nothing to free
+		}
+	}
+	private static final AdditiveComposite ADDITIVE = new AdditiveComposite();
+	private static final AffineTransform IDENTITY = new AffineTransform();
+	
+	/**
+	 * JJ> Draws a number of tiles
+	 */
+	private final class TileTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final int first, last;
+		
+		TileTask( int first, int last ) {
+			this.first = first;
+			this.last = last;
+		}
+		
+		@Override
+		protected void compute() {
+			if( last - first <= TILES_PER_TASK )
+			{
+				for( int tile = first; tile < last; tile++ ) drawTile(tile);
+				return;
+			}
+			int middle = (first + last) / 2;
+			invokeAll(new TileTask(first, middle), new TileTask(middle, last));
+		}
+	}
+	
+	/**
+	 * JJ> Starts a new frame
+	 * @param screenWidth Size of the screen in pixels
+	 * @param screenHeight Size of the screen in pixels
+	 */
+	void begin( int screenWidth, int screenHeight ) {
+		count = 0;
+		glowLeft = glowTop = Integer.MAX_VALUE;
+		glowRight = glowBottom = -1;
+		
+		//Screen size changed?
+		if( framebuffer == null || width != screenWidth || height != screenHeight )
+		{
+			width = screenWidth;
+			height = screenHeight;
+			framebuffer = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB_PRE);
+			pixels = ((DataBufferInt)framebuffer.getRaster().getDataBuffer()).getData();
+			glowbuffer = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+			glow = ((DataBufferInt)glowbuffer.getRaster().getDataBuffer()).getData();
+			tileCols = (width + TILE_SIZE-1) / TILE_SIZE;
+			tileRows = (height + TILE_SIZE-1) / TILE_SIZE;
+			tileDirty = new boolean[tileCols*tileRows];
+			tileHead = new int[tileCols*tileRows];
+		}
+	}
+	
+	/**
+	 * JJ> Adds a particle to draw this frame
+	 * @param sprite Which image to draw
+	 * @param xs Transform from the sprite to the screen
+	 * @param transparency 0 is invisible, 1 is solid
+	 * @param add Use additive blending instead of normal alpha blending
+	 */
+	void add( Sprite sprite, AffineTransform xs, float transparency, boolean add ) {
+		
+		//Invert the transform so that we can go from the screen to the sprite
+		double a = xs.getScaleX(), b = xs.getShearX(), c = xs.getShearY(), d = xs.getScaleY();
+		double determinant = a*d - b*c;
+		if( determinant == 0 ) return;
+		
+		//Find the bounds on screen
+		int w = sprite.getWidth(), h = sprite.getHeight();
+		double tx = xs.getTranslateX(), ty = xs.getTranslateY();
+		double x0 = tx, x1 = a*w + tx, x2 = b*h + tx, x3 = a*w + b*h + tx;
+		double y0 = ty, y1 = c*w + ty, y2 = d*h + ty, y3 = c*w + d*h + ty;
+		int left = Math.max(0, (int)Math.floor(Math.min(Math.min(x0, x1), Math.min(x2, x3))));
+		int right = Math.min(width-1, (int)Math.ceil(Math.max(Math.max(x0, x1), Math.max(x2, x3))));
+		int top = Math.max(0, (int)Math.floor(Math.min(Math.min(y0, y1), Math.min(y2, y3))));
+		int bottom = Math.min(height-1, (int)Math.ceil(Math.max(Math.max(y0, y1), Math.max(y2, y3))));
+		if( left > right || top > bottom ) return;
+		
+		if( count == m00.length ) grow(Math.max(64, count*2));
+		int i = count++;
+		m00[i] = (float)( d / determinant);
+		m01[i] = (float)(-b / determinant);
+		m02[i] = (float)((b*ty - d*tx) / determinant);
+		m10[i] = (float)(-c / determinant);
+		m11[i] = (float)( a / determinant);
+		m12[i] = (float)((c*tx - a*ty) / determinant);
+		minX[i] = left;
+		maxX[i] = right;
+		minY[i] = top;
+		maxY[i] = bottom;
+		
+		int[] data = spritePixels.get(sprite);
+		if( data == null )
+		{
+			data = new int[(w+2) * (h+2)];
+			sprite.getPage().getRGB(sprite.getX(), sprite.getY(), w, h, data, w+3, w+2);
+			spritePixels.put(sprite, premultiply(data));
+		}
+		source[i] = data;
+		spriteWidth[i] = w;
+		spriteHeight[i] = h;
+		alpha[i] = Math.round(Math.min(1, Math.max(0, transparency)) * 256);
+		additive[i] = add;
+		if( add )
+		{
+			glowLeft = Math.min(glowLeft, left);
+			glowTop = Math.min(glowTop, top);
+			glowRight = Math.max(glowRight, right);
+			glowBottom = Math.max(glowBottom, bottom);
+		}
+	}
+	
+	/**
+	 * JJ> Draws every particle added since begin() and then draws the result. The transforms given to add()
+	 *     already go all the way to device pixels, so the framebuffer is drawn without any transform.
+	 *     Tiles are drawn by the common pool, which is also where the game lets its entities think.
+	 * @param g Which Graphics2D to draw the finished particles on
+	 */
+	void finish( Graphics2D g ) {
+		
+		//Put every particle into each tile it touches. Going backwards gives lists in the order they were added.
+		Arrays.fill(tileHead, -1);
+		entryCount = 0;
+		for( int i = count-1; i >= 0; i-- )
+			for( int ty = minY[i] / TILE_SIZE; ty <= maxY[i] / TILE_SIZE; ty++ )
+				for( int tx = minX[i] / TILE_SIZE; tx <= maxX[i] / TILE_SIZE; tx++ )
+				{
+					if( entryCount == entryNext.length )
+					{
+						entryNext = Arrays.copyOf(entryNext, entryCount*2);
+						entryParticle = Arrays.copyOf(entryParticle, entryCount*2);
+					}
+					int tile = ty * tileCols + tx;
+					entryParticle[entryCount] = i;
+					entryNext[entryCount] = tileHead[tile];
+					tileHead[tile] = entryCount++;
+				}
+		
+		//Draw all tiles
+		ForkJoinPool.commonPool().invoke(new TileTask(0, tileCols*tileRows));
+		
+		AffineTransform view = g.getTransform();
+		g.setTransform(IDENTITY);
+		g.drawImage(framebuffer, 0, 0, null);
+		
+		//Add the glow, only where there are any additive particles
+		if( glowRight >= 0 )
+		{
+			Composite reset = g.getComposite();
+			g.setComposite(ADDITIVE);
+			g.drawImage(glowbuffer, glowLeft, glowTop, glowRight+1, glowBottom+1, glowLeft, glowTop, glowRight+1, glowBottom+1, null);
+			g.setComposite(reset);
+		}
+		g.setTransform(view);
+	}
+
+	private void drawTile( int tile ) {
+		int tileX = (tile % tileCols) * TILE_SIZE, tileY = (tile / tileCols) * TILE_SIZE;
+		int tileRight = Math.min(width, tileX + TILE_SIZE), tileBottom = Math.min(height, tileY + TILE_SIZE);
+		
+		//Nothing to do?
+		if( tileHead[tile] == -1 && !tileDirty[tile] ) return;
+		
+		//Clear what we drew last frame
+		if( tileDirty[tile] )
+			for( int y = tileY; y < tileBottom; y++ ) 
+			{
+				Arrays.fill(pixels, y*width + tileX, y*width + tileRight, 0);
+				Arrays.fill(glow, y*width + tileX, y*width + tileRight, 0);
+			}
+		tileDirty[tile] = tileHead[tile] != -1;
+		
+		for( int entry = tileHead[tile]; entry != -1; entry = entryNext[entry] )
+		{
+			int i = entryParticle[entry];
+			int left = Math.max(tileX, minX[i]), right = Math.min(tileRight-1, maxX[i]);
+			int top = Math.max(tileY, minY[i]), bottom = Math.min(tileBottom-1, maxY[i]);
+			
+			int[] src = source[i];
+			int sw = spriteWidth[i], sh = spriteHeight[i], stride = sw+2;
+			int a = alpha[i];
+			boolean add = additive[i];
+			float du = m00[i], dv = m10[i];
+			
+			
+			for( int y = top; y <= bottom; y++ )
+			{
+				//Sample at pixel centres
+				float u = m00[i] * (left + 0.5f) + m01[i] * (y + 0.5f) + m02[i];
+				float v = m10[i] * (left + 0.5f) + m11[i] * (y + 0.5f) + m12[i];
+				
+				//Only visit the part of the row that is inside the sprite. Solve where it enters and leaves
+				//the sprite and then fix any rounding errors by checking the end points.
+				int start = left, end = right;
+				if( du != 0 )
+				{
+					float enter = -u / du, leave = (sw - u) / du;
+					start = Math.max(start, left + (int)Math.floor(Math.min(enter, leave)));
+					end = Math.min(end, left + (int)Math.ceil(Math.max(enter, leave)));
+				}
+				if( dv != 0 )
+				{
+					float enter = -v / dv, leave = (sh - v) / dv;
+					start = Math.max(start, left + (int)Math.floor(Math.min(enter, leave)));
+					end = Math.min(end, left + (int)Math.ceil(Math.max(enter, leave)));
+				}
+				while( start <= end && outside(u + du*(start-left), v + dv*(start-left), sw, sh) ) start++;
+				while( end >= start && outside(u + du*(end-left), v + dv*(end-left), sw, sh) ) end--;
+				if( start > end ) continue;
+				
+				//Step through the sprite in 16.16 fixed point. Rounding can take us one pixel outside the
+				//sprite, which is fine since there is a empty border around it.
+				int fu = (int)((u + du*(start-left)) * 65536), fv = (int)((v + dv*(start-left)) * 65536);
+				int fdu = (int)(du * 65536), fdv = (int)(dv * 65536);
+				int index = y*width + start, base = stride + 1;
+				
+				for( int x = start; x <= end; x++, index++, fu += fdu, fv += fdv )
+				{
+					int color = src[base + (fv >> 16) * stride + (fu >> 16)];
+					if( color == 0 ) continue;
+					
+					//Solid pixels simply replace what was there
+					if( a == 256 && !add && (color >>> 24) == 255 )
+					{
+						pixels[index] = color;
+						continue;
+					}
+					
+					//Apply transparency to every channel, two channels at a time
+					if( a < 256 ) color = ((color & 0x00FF00FF) * a >>> 8) & 0x00FF00FF | (((color >>> 8) & 0x00FF00FF) * a) & 0xFF00FF00;
+					
+					if( add )
+					{
+						//Add colours and clamp
+						int dst = glow[index];
+						int r = Math.min(255, ((dst >> 16) & 0xFF) + ((color >> 16) & 0xFF));
+						int gr = Math.min(255, ((dst >> 8) & 0xFF) + ((color >> 8) & 0xFF));
+						int b = Math.min(255, (dst & 0xFF) + (color & 0xFF));
+						glow[index] = r << 16 | gr << 8 | b;
+					}
+					else
+					{
+						//Premultiplied source over
+						int dst = pixels[index];
+						int inverse = 256 - ((color >>> 24) + ((color >>> 31)));
+						pixels[index] = color + ( ((dst & 0x00FF00FF) * inverse >>> 8) & 0x00FF00FF | (((dst >>> 8) & 0x00FF00FF) * inverse) & 0xFF00FF00 );
+					}
+				}
+			}
+		}
+	}
+	
+	private static boolean outside( float u, float v, int width, int height ) {
+		return u < 0 || v < 0 || u >= width || v >= height;
+	}
+	
+	private static int[] premultiply( int[] argb ) {
+		for( int i = 0; i < argb.length; i++ )
+		{
+			int a = argb[i] >>> 24;
+			if( a == 255 ) continue;
+			if( a == 0 )
+			{
+				argb[i] = 0;
+				continue;
+			}
+			int r = ((argb[i] >> 16) & 0xFF) * a / 255;
+			int g = ((argb[i] >> 8) & 0xFF) * a / 255;
+			int b = (argb[i] & 0xFF) * a / 255;
+			argb[i] = a << 24 | r << 16 | g << 8 | b;
+		}
+		return argb;
+	}
+	
+	private void grow( int size ) {
+		m00 = Arrays.copyOf(m00, size);
+		m01 = Arrays.copyOf(m01, size);
+		m02 = Arrays.copyOf(m02, size);
+		m10 = Arrays.copyOf(m10, size);
+		m11 = Arrays.copyOf(m11, size);
+		m12 = Arrays.copyOf(m12, size);
+		minX = Arrays.copyOf(minX, size);
+		minY = Arrays.copyOf(minY, size);
+		maxX = Arrays.copyOf(maxX, size);
+		maxY = Arrays.copyOf(maxY, size);
+		source = Arrays.copyOf(source, size);
+		spriteWidth = Arrays.copyOf(spriteWidth, size);
+		spriteHeight = Arrays.copyOf(spriteHeight, size);
+		alpha = Arrays.copyOf(alpha, size);
+		additive = Arrays.copyOf(additive, size);
+	}
+}
@@ -23,14 +23,23 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
 
-import javax.swing.ImageIcon;
+import gameEngine.TextureAtlas.Sprite;
 
 public final class ParticleTemplate {
 	
 	static final float RANDOM_ANGLE = Float.MIN_VALUE;
 	
+	/**
+	 * JJ> How a particle is mixed with whatever is behind it. ADD makes things brighter and is only
+	 *     supported by the software particle renderer, Java2D draws it like NORMAL.
+	 */
+	public static enum BlendMode {
+		NORMAL,
+		ADD
+	}
+	
 	//Particle variables
-	public final ArrayList<ImageIcon> image;
+	public final ArrayList<Sprite> image;
 	public final int time;					//How many frames it has to live
 	public final float alpha;				//Transparency
 	public final float alphaAdd;
@@ -60,11 +69,17 @@ public final class ParticleTemplate {
 	public final boolean friendlyFire;
 
 	public final float homing;
+	public final BlendMode blend;
 	
-	public ParticleTemplate( String fileName ) throws InvalidParticleException {		
+	/**
+	 * JJ> Loads a particle from file
+	 * @param fileName The .prt file to load
+	 * @param atlas Where to put the particle images
+	 */
+	public ParticleTemplate( String fileName, TextureAtlas atlas ) throws InvalidParticleException {		
 		
 		//Temp variables set to default
-		image = new ArrayList<ImageIcon>();
+		image = new ArrayList<Sprite>();
 		int time = 1;
 		
 		float alpha = 1;
@@ -91,6 +106,7 @@ public final class ParticleTemplate {
 		boolean physics = false;
 		
 		float homing = 0;
+		BlendMode blend = BlendMode.NORMAL;
 		float speed = 0;
 		
 		String particleEnd = null;
@@ -135,8 +151,8 @@ public final class ParticleTemplate {
 				}
 				
 				//Try loading it
-				ImageIcon load = new ImageIcon(ResourceMananger.getFilePath(path));	
-				if( load.getIconWidth() <= 0 )
+				Sprite load = atlas.load(path);	
+				if( load == null )
 				{
 					Log.warning("Loading particle: " + fileName + " - Failed loading the specified image! (" + path + ")");
 					continue;
@@ -182,6 +198,12 @@ public final class ParticleTemplate {
 			else if(line.startsWith("[END_FACING_ADD]:")) endFacingAdd = Float.parseFloat(parse(line));
 
 			else if(line.startsWith("[HOMING]:")) homing = Float.parseFloat( parse(line) );
+			
+			else if(line.startsWith("[BLEND]:"))
+			{
+				if( parse(line).equalsIgnoreCase("ADD") ) blend = BlendMode.ADD;
+				else									  blend = BlendMode.NORMAL;
+			}
 
 			else Log.warning("Loading particle file ( "+ fileName +") unrecognized line - " + line);
 		}
@@ -192,6 +214,7 @@ public final class ParticleTemplate {
 		this.speed = attached ? 0 : speed;
 		this.attached = attached;
 		this.homing = homing;
+		this.blend = blend;
 		
 		this.alpha = alpha;
 		this.alphaAdd = alphaAdd;
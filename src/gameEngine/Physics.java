@@ -20,32 +20,48 @@ package gameEngine;
 
 import java.util.ArrayList;
 
-import narwhal.Asteroid;
 import narwhal.Interceptor;
 
 public abstract class Physics extends Collidable {
 	protected Vector speed;
 	protected boolean anchored;
 	protected float mass = 0;
-	private static final float G = 0.00000000667428f;	//6.67428f * 0.000000001f;
 
 	public void update(){
 		pos.add( getSpeed() );
 	}
 	
-	public static void updatePhysics( ArrayList<GameObject> objects ){
+	//Reused every update so that the physics loop does not allocate
+	private static final ArrayList<GameObject> nearby = new ArrayList<GameObject>();
+	private static final GravitySolver gravity = new GravitySolver();
+	
+	/**
+	 * JJ> Does collisions between every GameObject and gravity pulls between every GameObject and physics
+	 *     particle. The spatial grid is rebuilt every update so that only objects that are close to each
+	 *     other are tested for collisions. Gravity is done by the GravitySolver.
+	 * @param objects Every GameObject in the universe
+	 * @param grid Spatial grid covering the universe, this is cleared and refilled with the objects
+	 * @param field Precalculated gravity from anchored objects, rebuilt automatically if they change
+	 */
+	public static void updatePhysics( ArrayList<GameObject> objects, SpatialGrid<GameObject> grid, GravityField field ){
 		ArrayList<Particle> particles = GameEngine.getParticleEngine().getParticleList();
 		
+		//Objects can collide (or be thrown by a planet) within max(radius)*2
+		grid.clear();
+		for (int i = 0; i < objects.size(); i++) grid.insert(objects.get(i), objects.get(i).radius*2);
+		
 		for (int i = 0; i < objects.size(); i++)
 		{
-			Physics us = objects.get(i);
+			GameObject us = objects.get(i);
 			
-			for (int k = i+1; k < objects.size(); k++)
+			//Only look at objects after us in the list, so that each pair is only done once
+			grid.query(us.getCentreX(), us.getCentreY(), us.radius*2, i+1, nearby);
+			for (int k = 0; k < nearby.size(); k++)
 			{
-				Physics them = objects.get(k);
+				GameObject them = nearby.get(k);
 				
 				//Check if it is a interceptor that is docking first
-				if( them instanceof Interceptor )
+				if( them.getArchetype() == GameObject.Archetype.INTERCEPTOR )
 				{
 					Interceptor tiny = (Interceptor)them;
 					if( tiny.outOfFuel() && tiny.getMaster() == us && us.collidesWith(them) )
@@ -61,59 +77,19 @@ public abstract class Physics extends Collidable {
 					us.collision( them );
 				}
 				
-				//Mext, do gravity pulls
-				Vector diff = us.getPosCentre().minus(them.getPosCentre());
-				
-				//Skip gravity pulls if distance is to far
-				if( diff.length() > Math.max(us.radius, them.radius)*2 ) continue;
-
-				float pull = G * (( us.mass * them.mass ) / ( diff.length() ));
-				
-				if (!them.anchored)
+				//Throw asteroids out in space again when they get close to a planet
+				if( us.anchored && them.getArchetype() == GameObject.Archetype.ASTEROID )
 				{
-					diff.setLength(pull / them.mass);
-					them.speed.add(diff);
-					
-					//Throw asteroids out in space again
-					if( us.anchored && them instanceof Asteroid )
-					{
+					float maxDistance = Math.max(us.radius, them.radius)*2;
+					if( Vector.distanceSq(us.getCentreX(), us.getCentreY(), them.getCentreX(), them.getCentreY()) <= maxDistance*maxDistance )
 						them.getSpeed().setLength(them.speed.length()*1.00175f);
-					}
-				}
-				
-				if (!us.anchored)
-				{
-					diff.negate();
-					diff.setLength(pull / us.mass);
-					us.speed.add(diff);
-				}
-			}
-			
-			//Particle and object gravity
-			for (int k = i+1; k < particles.size(); k++)
-			{
-				Particle them = particles.get(k);
-				
-				//Only if they have physics activated
-				if( !them.getParticleTemplate().physics ) continue;
-								
-				//Skip gravity pulls if distance is to far
-				Vector diff = us.getPosCentre().minus(them.getPosCentre());
-				if( diff.length() > 1200 ) continue;
-
-				float pull = G * (( us.mass * them.mass ) / ( diff.length() ));
-				
-				if (!objects.get(i).anchored)
-				{
-					diff.setLength(pull / them.mass);
-					us.speed.add(diff);
 				}
-				
-				diff.negate();
-				diff.setLength(pull / objects.get(i).mass);
-				objects.get(i).speed.add(diff);
 			}
 		}
+		
+		//Gravity pulls between everything
+		gravity.setTheta( GameEngine.getConfig().gravityTheta );
+		gravity.solve( objects, particles, field );
 	}
 	
 	/**
@@ -129,7 +105,7 @@ public abstract class Physics extends Collidable {
 			//They are circle
 			if (object.shape == Shape.CIRCLE)
 			{
-				Vector colVec = this.getPosCentre().minus(object.getPosCentre());
+				Vector colVec = new Vector(this.getCentreX() - object.getCentreX(), this.getCentreY() - object.getCentreY());
 				colVec.setLength((this.radius + object.radius) - colVec.length());
 				if (this.anchored && !object.anchored)
 				{
@@ -149,14 +125,20 @@ public abstract class Physics extends Collidable {
 					float combinedMass = this.mass + object.mass;
 					
 					float thisMultiplier = 1f-(this.mass/combinedMass);
-					this.getSpeed().add(colVec.times(thisMultiplier));
-					this.pos.add(colVec.times(thisMultiplier));
+					float pushX = colVec.x * thisMultiplier, pushY = colVec.y * thisMultiplier;
+					this.getSpeed().x += pushX;
+					this.getSpeed().y += pushY;
+					this.pos.x += pushX;
+					this.pos.y += pushY;
 					this.getSpeed().multiply(0.85f);		//Lose 15% speed
 					
 					float objectMultiplier = 1f-(object.mass/combinedMass);
-					colVec.negate();
-					object.getSpeed().add(colVec.times(objectMultiplier));
-					object.pos.add(colVec.times(objectMultiplier));
+					pushX = -colVec.x * objectMultiplier;
+					pushY = -colVec.y * objectMultiplier;
+					object.getSpeed().x += pushX;
+					object.getSpeed().y += pushY;
+					object.pos.x += pushX;
+					object.pos.y += pushY;
 					object.getSpeed().multiply(0.85f);		//Lose 15% speed
 				}
 			}
@@ -0,0 +1,261 @@
+//********************************************************************************************
+//*
+//*    This file is part of Project Narwhal.
+//*
+//*    Project Narwhal is free software: you can redistribute it and/or modify it
+//*    under the terms of the GNU General Public License as published by
+//*    the Free Software Foundation, either version 3 of the License, or
+//*    (at your option) any later version.
+//*
+//*    Project Narwhal is distributed in the hope that it will be useful, but
+//*    WITHOUT ANY WARRANTY; without even the implied warranty of
+//*    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//*    General Public License for more details.
+//*
+//*    You should have received a copy of the GNU General Public License
+//*    along with Project Narwhal.  If not, see <http://www.gnu.org/licenses/>.
+//*
+//********************************************************************************************
+package gameEngine;
+
+import gameEngine.TextureAtlas.Sprite;
+
+import java.util.Arrays;
+
+/**
+ * JJ> Everything needed to draw one update of the game world: where things were before and after the
+ *     update, how their images look and which particles are visible. The simulation fills in a snapshot
+ *     at the end of every update and the renderer draws the newest one, so drawing never touches the
+ *     objects that are being updated and the two can run at the same time on different threads.
+ *     Snapshots are reused through a Buffer, so making one allocates nothing once the arrays are big enough.
+ * @author Johan Jansen and Anders Eie
+ */
+public final class RenderSnapshot {
+	
+	/**
+	 * JJ> Triple buffering of snapshots. The simulation always has one to write into, the renderer always
+	 *     has one to draw and the third is the newest finished one. Neither side ever waits for the other,
+	 *     swapping only takes a few instructions while holding the lock.
+	 */
+	public static final class Buffer {
+		private RenderSnapshot writing = new RenderSnapshot();
+		private RenderSnapshot ready = new RenderSnapshot();
+		private RenderSnapshot reading = new RenderSnapshot();
+		private boolean fresh;				//ready is newer than reading
+		private boolean published;			//At least one snapshot has been finished
+		
+		/**
+		 * JJ> Gets a empty snapshot to fill in. Only call from the simulation thread.
+		 */
+		public RenderSnapshot beginWrite() {
+			writing.clear();
+			return writing;
+		}
+		
+		/**
+		 * JJ> Makes the snapshot returned by beginWrite() the newest one
+		 */
+		public synchronized void publish() {
+			writing.time = System.nanoTime();
+			RenderSnapshot swap = ready;
+			ready = writing;
+			writing = swap;
+			fresh = published = true;
+		}
+		
+		/**
+		 * JJ> Gets the newest finished snapshot. It stays valid until the next call. Only call from the render thread.
+		 * @return null if nothing has been published yet
+		 */
+		public synchronized RenderSnapshot read() {
+			if( fresh )
+			{
+				RenderSnapshot swap = reading;
+				reading = ready;
+				ready = swap;
+				fresh = false;
+			}
+			return published ? reading : null;
+		}
+	}
+	
+	long time;										//System.nanoTime() when this snapshot was published
+	
+	//The object the camera follows
+	float followLastX, followLastY, followX, followY;
+	float followSpeedX, followSpeedY;
+	int followWidth, followHeight;
+	int shake;										//How much the camera shakes
+	
+	//Game objects near the camera
+	int entityCount;
+	float[] entityLastX = new float[64], entityLastY = new float[64];
+	float[] entityX = new float[64], entityY = new float[64];
+	float[] entityRadius = new float[64];			//Collision circle, negative if the object is not round
+	Image2D[] entityImage = new Image2D[64];		//Private copies, the originals keep changing
+	
+	//Visible particles
+	int particleCount;
+	float[] particleLastX = new float[256], particleLastY = new float[256];
+	float[] particleX = new float[256], particleY = new float[256];
+	float[] particleAngle = new float[256], particleSize = new float[256];
+	float[] particleAlpha = new float[256], particleRadius = new float[256];
+	boolean[] particleAdd = new boolean[256];		//Additive blending
+	Sprite[] particleSprite = new Sprite[256];
+	
+	//What the player's HUD shows, filled in by the game itself
+	public final HudState hud = new HudState();
+
+	/**
+	 * JJ> Copy of everything the HUD draws: the observer's bars and status and one radar blip for every
+	 *     ship it can see. The game fills this in from the simulation thread, the HUD only reads it.
+	 */
+	public static final class HudState {
+		public boolean visible;							//False when there is no observer to draw for
+		public float shield, shieldMax, life, lifeMax, energy, energyMax;
+		public boolean radioActive, slowed, homed;
+		public int radarLevel;
+		public int team;
+		public float centreX, centreY;					//Observer position
+		public int mouseX, mouseY;
+		
+		//Tracked ships, positions are the centre of the ship
+		public int blipCount;
+		public float[] blipX = new float[16], blipY = new float[16];
+		public int[] blipWidth = new int[16], blipHeight = new int[16];
+		public int[] blipTeam = new int[16];
+		public float[] blipShield = new float[16], blipShieldMax = new float[16];
+		public float[] blipLife = new float[16], blipLifeMax = new float[16];
+		public float[] blipEnergy = new float[16], blipEnergyMax = new float[16];
+		
+		private HudState() {
+			//Made by RenderSnapshot only
+		}
+		
+		/**
+		 * JJ> Adds one ship to the radar
+		 */
+		public void addBlip( float x, float y, int width, int height, int team, float shield, float shieldMax, float life, float lifeMax, float energy, float energyMax ) {
+			if( blipCount == blipX.length )
+			{
+				int size = blipCount*2;
+				blipX = Arrays.copyOf(blipX, size);
+				blipY = Arrays.copyOf(blipY, size);
+				blipWidth = Arrays.copyOf(blipWidth, size);
+				blipHeight = Arrays.copyOf(blipHeight, size);
+				blipTeam = Arrays.copyOf(blipTeam, size);
+				blipShield = Arrays.copyOf(blipShield, size);
+				blipShieldMax = Arrays.copyOf(blipShieldMax, size);
+				blipLife = Arrays.copyOf(blipLife, size);
+				blipLifeMax = Arrays.copyOf(blipLifeMax, size);
+				blipEnergy = Arrays.copyOf(blipEnergy, size);
+				blipEnergyMax = Arrays.copyOf(blipEnergyMax, size);
+			}
+			
+			int i = blipCount++;
+			blipX[i] = x;
+			blipY[i] = y;
+			blipWidth[i] = width;
+			blipHeight[i] = height;
+			blipTeam[i] = team;
+			blipShield[i] = shield;
+			blipShieldMax[i] = shieldMax;
+			blipLife[i] = life;
+			blipLifeMax[i] = lifeMax;
+			blipEnergy[i] = energy;
+			blipEnergyMax[i] = energyMax;
+		}
+	}
+
+	private RenderSnapshot() {
+		//Made by Buffer only
+	}
+	
+	private void clear() {
+		
+		//Give back the variants the images held on to, the render thread is done with this snapshot
+		for( int i = 0; i < entityCount; i++ ) entityImage[i].dispose();
+		entityCount = 0;
+		particleCount = 0;
+		shake = 0;
+		hud.visible = false;
+		hud.blipCount = 0;
+	}
+	
+	/**
+	 * JJ> How far between the last and the current position things should be drawn right now
+	 * @param updateTime How long a update takes in nanoseconds
+	 */
+	float getInterpolation( long updateTime ) {
+		return Math.max(0, Math.min(1, (System.nanoTime() - time) / (float)updateTime));
+	}
+	
+	void setFollow( GameObject follow, float lastX, float lastY ) {
+		followLastX = lastX;
+		followLastY = lastY;
+		followX = follow.pos.x;
+		followY = follow.pos.y;
+		followSpeedX = follow.speed.x;
+		followSpeedY = follow.speed.y;
+		followWidth = follow.image.getWidth();
+		followHeight = follow.image.getHeight();
+	}
+	
+	void addEntity( Image2D image, float lastX, float lastY, float x, float y, float radius ) {
+		if( entityCount == entityX.length )
+		{
+			int size = entityCount*2;
+			entityLastX = Arrays.copyOf(entityLastX, size);
+			entityLastY = Arrays.copyOf(entityLastY, size);
+			entityX = Arrays.copyOf(entityX, size);
+			entityY = Arrays.copyOf(entityY, size);
+			entityRadius = Arrays.copyOf(entityRadius, size);
+			entityImage = Arrays.copyOf(entityImage, size);
+		}
+		
+		int i = entityCount++;
+		entityLastX[i] = lastX;
+		entityLastY[i] = lastY;
+		entityX[i] = x;
+		entityY[i] = y;
+		entityRadius[i] = radius;
+		if( entityImage[i] == null ) entityImage[i] = image.instance();
+		entityImage[i].copyFrom(image);
+	}
+	
+	void addParticle( Sprite sprite, float lastX, float lastY, float x, float y, float angle, float size, float alpha, float radius, boolean add ) {
+		if( particleCount == particleX.length )
+		{
+			int length = particleCount*2;
+			particleLastX = Arrays.copyOf(particleLastX, length);
+			particleLastY = Arrays.copyOf(particleLastY, length);
+			particleX = Arrays.copyOf(particleX, length);
+			particleY = Arrays.copyOf(particleY, length);
+			particleAngle = Arrays.copyOf(particleAngle, length);
+			particleSize = Arrays.copyOf(particleSize, length);
+			particleAlpha = Arrays.copyOf(particleAlpha, length);
+			particleRadius = Arrays.copyOf(particleRadius, length);
+			particleAdd = Arrays.copyOf(particleAdd, length);
+			particleSprite = Arrays.copyOf(particleSprite, length);
+		}
+		
+		int i = particleCount++;
+		particleSprite[i] = sprite;
+		particleLastX[i] = lastX;
+		particleLastY[i] = lastY;
+		particleX[i] = x;
+		particleY[i] = y;
+		particleAngle[i] = angle;
+		particleSize[i] = size;
+		particleAlpha[i] = alpha;
+		particleRadius[i] = radius;
+		particleAdd[i] = add;
+	}
+	
+	/**
+	 * JJ> Number of particles in this snapshot
+	 */
+	public int getParticleCount() {
+		return particleCount;
+	}
+}
@@ -0,0 +1,177 @@
+//********************************************************************************************
+//*
+//*    This file is part of Project Narwhal.
+//*
+//*    Project Narwhal is free software: you can redistribute it and/or modify it
+//*    under the terms of the GNU General Public License as published by
+//*    the Free Software Foundation, either version 3 of the License, or
+//*    (at your option) any later version.
+//*
+//*    Project Narwhal is distributed in the hope that it will be useful, but
+//*    WITHOUT ANY WARRANTY; without even the implied warranty of
+//*    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//*    General Public License for more details.
+//*
+//*    You should have received a copy of the GNU General Public License
+//*    along with Project Narwhal.  If not, see <http://www.gnu.org/licenses/>.
+//*
+//********************************************************************************************
+package gameEngine;
+
+import java.awt.Graphics2D;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+
+/**
+ * JJ> Drawing a rotated image is a lot slower than drawing it straight, especially with bilinear filtering.
+ *     This keeps pre-rotated copies of images so that a rotated Image2D can be drawn with a plain blit.
+ *     A full circle is split into a number of buckets and the image is rendered once for each bucket it
+ *     is actually drawn at. The copies belong to the shared VariantCache variant, so every Image2D that
+ *     looks the same also shares its rotations. Memory use is limited by throwing away the least recently
+ *     used copies.
+ * @author Johan Jansen and Anders Eie
+ */
+final class RotationCache {
+	
+	/**
+	 * JJ> One pre-rotated copy of an image. The entries are kept in a linked list from most recently
+	 *     used to least recently used.
+	 */
+	static final class Entry {
+		BufferedImage image;
+		int offsetX, offsetY;				//Where to draw it relative to the unrotated image
+		private VariantCache.Variant owner;
+		private int index;
+		private long bytes;
+		private Entry prev, next;
+	}
+	
+	private static Entry first, last;
+	private static long usedBytes;
+	
+	private RotationCache() {
+		//Only static functions
+	}
+	
+	/**
+	 * JJ> Gets the pre-rotated copy of a variant that is closest to the specified angle, making it if needed
+	 * @param variant The image to rotate, must be ready
+	 * @param flipHorizontal Flip before rotating
+	 * @param flipVertical Flip before rotating
+	 * @param angle Rotation in radians
+	 * @param buckets Number of different angles in a full circle
+	 */
+	static synchronized Entry get( VariantCache.Variant variant, boolean flipHorizontal, boolean flipVertical, float angle, int buckets ) {
+		
+		//Every flip combination has its own set of buckets
+		Entry[] rotations = variant.rotations;
+		if( rotations == null || rotations.length != buckets*4 )
+		{
+			invalidate(variant);
+			rotations = variant.rotations = new Entry[buckets*4];
+		}
+		
+		//Find closest bucket
+		double turns = angle / (2 * Math.PI);
+		turns -= Math.floor(turns);
+		int bucket = (int)Math.round(turns * buckets) % buckets;
+		int index = bucket + buckets * ((flipHorizontal ? 1 : 0) + (flipVertical ? 2 : 0));
+		
+		Entry entry = rotations[index];
+		if( entry == null )
+		{
+			entry = render(variant.image, flipHorizontal, flipVertical, bucket, buckets);
+			entry.owner = variant;
+			entry.index = index;
+			rotations[index] = entry;
+			usedBytes += entry.bytes;
+			link(entry);
+			
+			//Stay within memory budget
+			long budget = GameEngine.getConfig().spriteCacheSize * 1024L * 1024L;
+			while( usedBytes > budget && last != entry ) remove(last);
+		}
+		else if( entry != first )
+		{
+			unlink(entry);
+			link(entry);
+		}
+		
+		return entry;
+	}
+	
+	/**
+	 * JJ> Throws away every pre-rotated copy of the specified variant, used when the variant is thrown away
+	 */
+	static synchronized void invalidate( VariantCache.Variant variant ) {
+		if( variant.rotations == null ) return;
+		for( Entry entry : variant.rotations )
+			if( entry != null ) remove(entry);
+		variant.rotations = null;
+	}
+	
+	/**
+	 * @return Number of bytes used by all pre-rotated images
+	 */
+	static synchronized long getUsedBytes() {
+		return usedBytes;
+	}
+
+	private static Entry render( BufferedImage image, boolean flipHorizontal, boolean flipVertical, int bucket, int buckets ) {
+		int width = image.getWidth(), height = image.getHeight();
+		int size = (int)Math.ceil( Math.sqrt(width*width + height*height) );
+		int padX = (size-width)/2, padY = (size-height)/2;
+		
+		Entry entry = new Entry();
+		entry.offsetX = -padX;
+		entry.offsetY = -padY;
+		entry.bytes = 4L * size * size;
+		entry.image = GameEngine.createBufferedImage(size, size);
+		
+		//Same transform as Image2D.draw() uses, but centred in the bigger image
+		AffineTransform xs = new AffineTransform();
+		xs.translate(padX, padY);
+		if( flipHorizontal ) 
+		{
+			xs.scale(-1.0, 1.0);
+			xs.translate(-width, 0);
+		}
+		if( flipVertical )
+		{
+			xs.scale(1.0, -1.0);
+			xs.translate(0, -height);
+		}
+		xs.rotate((2 * Math.PI * bucket) / buckets, width/2, height/2);
+		
+		Graphics2D g = entry.image.createGraphics();
+		GameEngine.getGraphicsSettings(g);
+		g.drawImage(image, xs, null);
+		g.dispose();
+		
+		return entry;
+	}
+	
+	private static void remove( Entry entry ) {
+		unlink(entry);
+		entry.owner.rotations[entry.index] = null;
+		entry.image.flush();
+		usedBytes -= entry.bytes;
+	}
+	
+	//Put first in the list
+	private static void link( Entry entry ) {
+		entry.prev = null;
+		entry.next = first;
+		if( first != null ) first.prev = entry;
+		first = entry;
+		if( last == null ) last = entry;
+	}
+	
+	private static void unlink( Entry entry ) {
+		if( entry.prev != null ) entry.prev.next = entry.next;
+		else					 first = entry.next;
+		if( entry.next != null ) entry.next.prev = entry.prev;
+		else					 last = entry.prev;
+		entry.prev = entry.next = null;
+	}
+}
@@ -0,0 +1,228 @@
+//********************************************************************************************
+//*
+//*    This file is part of Project Narwhal.
+//*
+//*    Project Narwhal is free software: you can redistribute it and/or modify it
+//*    under the terms of the GNU General Public License as published by
+//*    the Free Software Foundation, either version 3 of the License, or
+//*    (at your option) any later version.
+//*
+//*    Project Narwhal is distributed in the hope that it will be useful, but
+//*    WITHOUT ANY WARRANTY; without even the implied warranty of
+//*    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//*    General Public License for more details.
+//*
+//*    You should have received a copy of the GNU General Public License
+//*    along with Project Narwhal.  If not, see <http://www.gnu.org/licenses/>.
+//*
+//********************************************************************************************
+package gameEngine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * JJ> A uniform spatial hash that buckets Physics objects into cells so that we only need to
+ *     look at nearby objects instead of every single object in the universe. Each object is
+ *     inserted into every cell that its reach (a square around its centre) overlaps. Two objects
+ *     that are within reach of each other are then guaranteed to share at least one cell.
+ *     The grid wraps around the universe bounds the same way GameObject.update() does.
+ * @author Johan Jansen and Anders Eie
+ */
+public class SpatialGrid<T extends Physics> {
+	public static final int DEFAULT_CELL_SIZE = 256;
+
+	private final int cols, rows;
+	private final float cellWidth, cellHeight;
+
+	//Each cell is a linked list of entries, stored in flat arrays so that rebuilding allocates nothing
+	private final int[] cellHead;			//First entry in each cell (-1 if empty)
+	private int[] entryNext;				//Next entry in the same cell
+	private int[] entryObject;				//Which object this entry points to
+	private int entryCount;
+
+	private Object[] objects;				//Every object in insertion order
+	private int objectCount;
+
+	//Used to make sure an object is only reported once per query
+	private int[] visited;
+	private int visitStamp;
+	private int[] hits;
+
+	/**
+	 * JJ> Creates a new empty grid covering the specified universe
+	 * @param width Universe width in pixels
+	 * @param height Universe height in pixels
+	 * @param cellSize Preferred width and height of each cell. The actual size is adjusted slightly so
+	 *                 that a whole number of cells fit the universe, which keeps wrapping correct.
+	 */
+	public SpatialGrid( float width, float height, int cellSize ) {
+		cols = Math.max(1, Math.round(width / cellSize));
+		rows = Math.max(1, Math.round(height / cellSize));
+		cellWidth = width / cols;
+		cellHeight = height / rows;
+
+		cellHead = new int[cols*rows];
+		Arrays.fill(cellHead, -1);
+
+		entryNext = new int[256];
+		entryObject = new int[256];
+		objects = new Object[64];
+		visited = new int[64];
+		hits = new int[64];
+	}
+
+	public SpatialGrid( float width, float height ) {
+		this(width, height, DEFAULT_CELL_SIZE);
+	}
+
+	/**
+	 * JJ> Removes every object from the grid, ready to be filled again for a new update
+	 */
+	public void clear() {
+		Arrays.fill(cellHead, -1);
+		Arrays.fill(objects, 0, objectCount, null);
+		entryCount = 0;
+		objectCount = 0;
+	}
+
+	/**
+	 * JJ> Adds a object to the grid. Objects are numbered in the order they are inserted.
+	 * @param object The object to insert
+	 * @param reach How far from the object centre it can interact with other objects
+	 */
+	public void insert( T object, float reach ) {
+		float centreX = object.getCentreX(), centreY = object.getCentreY();
+
+		//Make room for one more object
+		if( objectCount == objects.length )
+		{
+			objects = Arrays.copyOf(objects, objectCount*2);
+			visited = Arrays.copyOf(visited, objectCount*2);
+			hits = Arrays.copyOf(hits, objectCount*2);
+		}
+		int index = objectCount++;
+		objects[index] = object;
+		visited[index] = 0;
+
+		//Insert it into every cell it can reach
+		int x0 = cellX(centreX - reach), x1 = cellX(centreX + reach);
+		int y0 = cellY(centreY - reach), y1 = cellY(centreY + reach);
+		if( x1 - x0 >= cols ) { x0 = 0; x1 = cols-1; }
+		if( y1 - y0 >= rows ) { y0 = 0; y1 = rows-1; }
+
+		for( int x = x0; x <= x1; x++ )
+			for( int y = y0; y <= y1; y++ )
+			{
+				int cell = wrap(y, rows) * cols + wrap(x, cols);
+
+				//Make room for one more entry
+				if( entryCount == entryNext.length )
+				{
+					entryNext = Arrays.copyOf(entryNext, entryCount*2);
+					entryObject = Arrays.copyOf(entryObject, entryCount*2);
+				}
+
+				entryObject[entryCount] = index;
+				entryNext[entryCount] = cellHead[cell];
+				cellHead[cell] = entryCount++;
+			}
+	}
+
+	/**
+	 * JJ> Finds every object that might be within range of the specified point. The result can contain
+	 *     objects that are further away than the range, so an exact test still needs to be done.
+	 * @param x Centre of the query
+	 * @param y Centre of the query
+	 * @param range How far away from the centre we want to look
+	 * @param result Cleared and then filled with the objects found, sorted in insertion order
+	 */
+	public void query( float x, float y, float range, ArrayList<T> result ) {
+		query(x, y, range, 0, result);
+	}
+
+	/**
+	 * JJ> Same as query(), but skips every object inserted before the specified index. Useful for
+	 *     visiting each pair of objects only once.
+	 * @param firstIndex Only report objects that were inserted as this number or later
+	 */
+	public void query( float x, float y, float range, int firstIndex, ArrayList<T> result ) {
+		query(x - range, y - range, x + range, y + range, firstIndex, result);
+	}
+
+	/**
+	 * JJ> Finds every object that might be inside the specified rectangle, for example the part of the
+	 *     universe that is on the screen. The rectangle wraps around the universe bounds like everything else.
+	 * @param left Left edge of the rectangle
+	 * @param top Top edge of the rectangle
+	 * @param right Right edge of the rectangle
+	 * @param bottom Bottom edge of the rectangle
+	 * @param result Cleared and then filled with the objects found, sorted in insertion order
+	 */
+	public void queryRectangle( float left, float top, float right, float bottom, ArrayList<T> result ) {
+		query(left, top, right, bottom, 0, result);
+	}
+
+	@SuppressWarnings("unchecked")
+	private void query( float left, float top, float right, float bottom, int firstIndex, ArrayList<T> result ) {
+		result.clear();
+
+		//New stamp for this query, reset everything if we ever overflow
+		if( ++visitStamp == Integer.MAX_VALUE )
+		{
+			Arrays.fill(visited, 0);
+			visitStamp = 1;
+		}
+
+		int x0 = cellX(left), x1 = cellX(right);
+		int y0 = cellY(top), y1 = cellY(bottom);
+		if( x1 - x0 >= cols ) { x0 = 0; x1 = cols-1; }
+		if( y1 - y0 >= rows ) { y0 = 0; y1 = rows-1; }
+
+		int found = 0;
+		for( int cx = x0; cx <= x1; cx++ )
+			for( int cy = y0; cy <= y1; cy++ )
+			{
+				int cell = wrap(cy, rows) * cols + wrap(cx, cols);
+				for( int entry = cellHead[cell]; entry != -1; entry = entryNext[entry] )
+				{
+					int index = entryObject[entry];
+					if( index < firstIndex || visited[index] == visitStamp ) continue;
+					visited[index] = visitStamp;
+					hits[found++] = index;
+				}
+			}
+
+		//Report them in the same order as they were inserted. Usually only a few objects are found, so
+		//a insertion sort is fastest and unlike Arrays.sort() it never allocates any memory.
+		if( found > 32 ) Arrays.sort(hits, 0, found);
+		else for( int i = 1; i < found; i++ )
+		{
+			int index = hits[i], j = i;
+			while( j > 0 && hits[j-1] > index ) hits[j] = hits[--j];
+			hits[j] = index;
+		}
+		for( int i = 0; i < found; i++ ) result.add( (T)objects[hits[i]] );
+	}
+
+	/**
+	 * JJ> Number of objects currently in the grid
+	 */
+	public int size() {
+		return objectCount;
+	}
+
+	private int cellX( float x ) {
+		return (int)Math.floor(x / cellWidth);
+	}
+
+	private int cellY( float y ) {
+		return (int)Math.floor(y / cellHeight);
+	}
+
+	//Universe wraps around, so does the grid
+	private static int wrap( int cell, int size ) {
+		cell %= size;
+		return cell < 0 ? cell + size : cell;
+	}
+}
@@ -0,0 +1,103 @@
+//********************************************************************************************
+//*
+//*    This file is part of Project Narwhal.
+//*
+//*    Project Narwhal is free software: you can redistribute it and/or modify it
+//*    under the terms of the GNU General Public License as published by
+//*    the Free Software Foundation, either version 3 of the License, or
+//*    (at your option) any later version.
+//*
+//*    Project Narwhal is distributed in the hope that it will be useful, but
+//*    WITHOUT ANY WARRANTY; without even the implied warranty of
+//*    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//*    General Public License for more details.
+//*
+//*    You should have received a copy of the GNU General Public License
+//*    along with Project Narwhal.  If not, see <http://www.gnu.org/licenses/>.
+//*
+//********************************************************************************************
+package gameEngine;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * JJ> Keeps track of every team that has ever spawned. Teams are named in missions and skirmish fleets,
+ *     but once something spawns its team name is turned into a small number so that finding out how two
+ *     teams feel about each other is a single array lookup instead of comparing names. Everyone is an
+ *     ally of their own team and an enemy of every other team, except NEUTRAL which belongs to nobody.
+ * @author Johan Jansen and Anders Eie
+ */
+public final class Team {
+	public static final int NEUTRAL = 0;			//Belongs to nobody, for example jammed missiles
+	public static final int MAX_TEAMS = 64;
+
+	private static final byte RELATION_NEUTRAL = 0;
+	private static final byte RELATION_ALLY = 1;
+	private static final byte RELATION_ENEMY = 2;
+	
+	private static final HashMap<String, Integer> teamID = new HashMap<String, Integer>();
+	private static final ArrayList<String> teamName = new ArrayList<String>();
+	
+	//How team a feels about team b is found at relation[a*MAX_TEAMS + b]
+	private static final byte[] relation = new byte[MAX_TEAMS*MAX_TEAMS];
+	
+	static {
+		teamID.put("NEUTRAL", NEUTRAL);
+		teamName.add("NEUTRAL");
+	}
+	
+	private Team() {
+		//Only static functions here
+	}
+	
+	/**
+	 * JJ> Gets the number for the specified team, adding it as a new team if we haven't seen it before.
+	 *     Upper and lower case doesn't matter.
+	 * @param name The team name, for example "GOOD"
+	 * @return The team number, NEUTRAL if there are already too many teams
+	 */
+	public static synchronized int getID( String name ) {
+		name = name.toUpperCase();
+		Integer id = teamID.get(name);
+		if( id != null ) return id;
+		
+		if( teamName.size() == MAX_TEAMS )
+		{
+			Log.warning("Too many teams (" + MAX_TEAMS + "), " + name + " will be neutral instead");
+			return NEUTRAL;
+		}
+		
+		//The new team is friends with itself and enemies with every other team
+		int team = teamName.size();
+		for( int other = NEUTRAL+1; other < team; other++ )
+		{
+			relation[team*MAX_TEAMS + other] = RELATION_ENEMY;
+			relation[other*MAX_TEAMS + team] = RELATION_ENEMY;
+		}
+		relation[team*MAX_TEAMS + team] = RELATION_ALLY;
+		
+		teamID.put(name, team);
+		teamName.add(name);
+		return team;
+	}
+	
+	public static synchronized String getName( int team ) {
+		return teamName.get(team);
+	}
+	
+	/**
+	 * JJ> True if the two teams are on the same side, which also means they can't hurt each other
+	 *     with weapons that don't have friendly fire
+	 */
+	public static boolean isAlly( int team, int other ) {
+		return relation[team*MAX_TEAMS + other] == RELATION_ALLY;
+	}
+	
+	/**
+	 * JJ> True if the two teams want to kill each other. Nobody is an enemy of NEUTRAL.
+	 */
+	public static boolean isEnemy( int team, int other ) {
+		return relation[team*MAX_TEAMS + other] == RELATION_ENEMY;
+	}
+}
@@ -0,0 +1,177 @@
+//********************************************************************************************
+//*
+//*    This file is part of Project Narwhal.
+//*
+//*    Project Narwhal is free software: you can redistribute it and/or modify it
+//*    under the terms of the GNU General Public License as published by
+//*    the Free Software Foundation, either version 3 of the License, or
+//*    (at your option) any later version.
+//*
+//*    Project Narwhal is distributed in the hope that it will be useful, but
+//*    WITHOUT ANY WARRANTY; without even the implied warranty of
+//*    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//*    General Public License for more details.
+//*
+//*    You should have received a copy of the GNU General Public License
+//*    along with Project Narwhal.  If not, see <http://www.gnu.org/licenses/>.
+//*
+//********************************************************************************************
+package gameEngine;
+
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import javax.swing.ImageIcon;
+
+/**
+ * JJ> Packs many small images into a few big pages. Every page is a image compatible with the screen,
+ *     so Java2D can keep it accelerated, and drawing a lot of different images only switches between
+ *     a few surfaces. Images are placed left to right on shelves as they are added.
+ * @author Johan Jansen and Anders Eie
+ */
+public class TextureAtlas {
+	public static final int PAGE_SIZE = 1024;
+	private static final int PADDING = 1;			//Empty space on every side of each image so that filtering does not bleed
+
+	private final ArrayList<BufferedImage> pages = new ArrayList<BufferedImage>();
+	private final HashMap<String, Sprite> loaded = new HashMap<String, Sprite>();
+	private BufferedImage page;						//Current page we are filling
+	private int shelfX, shelfY, shelfHeight;
+	
+	/**
+	 * JJ> One image inside a page of the atlas
+	 */
+	public static final class Sprite {
+		private final BufferedImage page;
+		private final int x, y, width, height;
+		private BufferedImage image;
+		
+		private Sprite( BufferedImage page, int x, int y, int width, int height ) {
+			this.page = page;
+			this.x = x;
+			this.y = y;
+			this.width = width;
+			this.height = height;
+		}
+		
+		public int getWidth() {
+			return width;
+		}
+		
+		public int getHeight() {
+			return height;
+		}
+		
+		//Position inside the page
+		int getX() {
+			return x;
+		}
+		
+		int getY() {
+			return y;
+		}
+
+		/**
+		 * JJ> The atlas page this sprite is in. Sprites on the same page can be drawn one after another
+		 *     without Java2D switching surfaces.
+		 */
+		public BufferedImage getPage() {
+			return page;
+		}
+		
+		/**
+		 * JJ> Gets this sprite as a image of its own, useful for menus and such. Do not use it for
+		 *     drawing lots of sprites, use draw() instead.
+		 */
+		public Image getImage() {
+			if( image == null ) image = page.getSubimage(x, y, width, height);
+			return image;
+		}
+		
+		/**
+		 * JJ> Draws this sprite from the atlas page. The Graphics2D transform is replaced, the caller
+		 *     is responsible for restoring it.
+		 * @param g Which Graphics2D to draw on
+		 * @param xs Transform from sprite space (0,0 to width,height) to the screen
+		 */
+		public void draw( Graphics2D g, AffineTransform xs ) {
+			g.setTransform(xs);
+			g.drawImage(page, 0, 0, width, height, x, y, x+width, y+height, null);
+		}
+	}
+	
+	/**
+	 * JJ> Loads a image file into the atlas. Loading the same file twice gives the same Sprite.
+	 * @return The new sprite or null if the image could not be loaded
+	 */
+	public Sprite load( String fileName ) {
+		Sprite sprite = loaded.get(fileName);
+		if( sprite != null ) return sprite;
+		
+		ImageIcon load = new ImageIcon(ResourceMananger.getFilePath(fileName));
+		if( load.getIconWidth() <= 0 ) return null;
+		
+		sprite = add(load.getImage(), load.getIconWidth(), load.getIconHeight());
+		loaded.put(fileName, sprite);
+		return sprite;
+	}
+	
+	/**
+	 * JJ> Copies a image into the atlas
+	 */
+	public Sprite add( Image image, int width, int height ) {
+		int x, y;
+		BufferedImage target;
+		
+		//Too big for a page, give it a page of its own
+		if( width + 2*PADDING > PAGE_SIZE || height + 2*PADDING > PAGE_SIZE )
+		{
+			target = GameEngine.createBufferedImage(width + 2*PADDING, height + 2*PADDING);
+			pages.add(target);
+			x = y = PADDING;
+		}
+		else
+		{
+			//Start a new shelf if there is no more room on this one
+			if( page != null && shelfX + width + 2*PADDING > PAGE_SIZE )
+			{
+				shelfX = 0;
+				shelfY += shelfHeight;
+				shelfHeight = 0;
+			}
+			
+			//Start a new page if there is no more room for the shelf
+			if( page == null || shelfY + height + 2*PADDING > PAGE_SIZE )
+			{
+				page = GameEngine.createBufferedImage(PAGE_SIZE, PAGE_SIZE);
+				pages.add(page);
+				shelfX = shelfY = shelfHeight = 0;
+			}
+			
+			target = page;
+			x = shelfX + PADDING;
+			y = shelfY + PADDING;
+			shelfX += width + PADDING;
+			shelfHeight = Math.max(shelfHeight, height + 2*PADDING);
+		}
+		
+		Graphics2D g = target.createGraphics();
+		g.setComposite(AlphaComposite.Src);
+		g.drawImage(image, x, y, width, height, null);
+		g.dispose();
+		
+		return new Sprite(target, x, y, width, height);
+	}
+	
+	/**
+	 * JJ> Number of pages used by the atlas
+	 */
+	public int getPageCount() {
+		return pages.size();
+	}
+}
@@ -0,0 +1,255 @@
+//********************************************************************************************
+//*
+//*    This file is part of Project Narwhal.
+//*
+//*    Project Narwhal is free software: you can redistribute it and/or modify it
+//*    under the terms of the GNU General Public License as published by
+//*    the Free Software Foundation, either version 3 of the License, or
+//*    (at your option) any later version.
+//*
+//*    Project Narwhal is distributed in the hope that it will be useful, but
+//*    WITHOUT ANY WARRANTY; without even the implied warranty of
+//*    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//*    General Public License for more details.
+//*
+//*    You should have received a copy of the GNU General Public License
+//*    along with Project Narwhal.  If not, see <http://www.gnu.org/licenses/>.
+//*
+//********************************************************************************************
+package gameEngine;
+
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.ConvolveOp;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Kernel;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * JJ> Image2D effects (resize, blur, emboss and tint) are expensive to apply, and many images end up
+ *     with exactly the same effects (like every asteroid at the same size). This cache shares the
+ *     processed variants between every Image2D that uses the same source image and the same effects.
+ *     Source images are identified by their content, so two Image2D loaded from the same file share
+ *     variants too. Variants are made on a worker thread so that drawing never has to wait for them.
+ *     Variants nobody uses any more are kept around within a memory budget in case they are needed again.
+ * @author Johan Jansen and Anders Eie
+ */
+final class VariantCache {
+	private static final ConvolveOp EMBOSS = new ConvolveOp(new Kernel(3, 3,
+		new float[] {
+			-2, 0, 0,
+			0, 1, 0,
+			0, 0, 2}));
+	private static final ConvolveOp BLUR = new ConvolveOp(new Kernel(3, 3,
+		new float[] {
+			1f/9f, 1f/9f, 1f/9f,
+			1f/9f, 1f/9f, 1f/9f,
+			1f/9f, 1f/9f, 1f/9f}));
+	
+	/**
+	 * JJ> One processed version of a source image. The image is null until it has been made.
+	 */
+	static final class Variant implements Runnable {
+		volatile BufferedImage image;
+		RotationCache.Entry[] rotations;	//Pre-rotated copies of the image (null if none)
+		private final long source;
+		private final int width, height, tint;
+		private final boolean blur, emboss;
+		private BufferedImage original;		//What to make the variant from, dropped when done
+		private boolean processed;			//False if the image is just the original
+		private int references;
+		
+		private Variant( BufferedImage original, long source, int width, int height, boolean blur, boolean emboss, int tint ) {
+			this.original = original;
+			this.source = source;
+			this.width = width;
+			this.height = height;
+			this.blur = blur;
+			this.emboss = emboss;
+			this.tint = tint;
+		}
+
+		@Override
+		public int hashCode() {
+			int hash = (int)(source ^ (source >>> 32));
+			hash = hash * 31 + width;
+			hash = hash * 31 + height;
+			hash = hash * 31 + tint;
+			return hash * 4 + (blur ? 2 : 0) + (emboss ? 1 : 0);
+		}
+		
+		@Override
+		public boolean equals( Object other ) {
+			if( !(other instanceof Variant) ) return false;
+			Variant v = (Variant)other;
+			return source == v.source && width == v.width && height == v.height && tint == v.tint && blur == v.blur && emboss == v.emboss;
+		}
+		
+		/**
+		 * JJ> Makes the variant image unless it is already made. Safe to call from any thread.
+		 */
+		@Override
+		public synchronized void run() {
+			if( image != null ) return;
+			try
+			{
+				image = process(original, width, height, blur, emboss, tint);
+				processed = true;
+			}
+			catch( Exception e )
+			{
+				Log.warning("Failed to process image: " + e);
+				image = original;
+			}
+			original = null;
+		}
+		
+		private long getBytes() {
+			return 4L * width * height;
+		}
+	}
+	
+	private static final HashMap<Variant, Variant> variants = new HashMap<Variant, Variant>();
+	private static final LinkedHashSet<Variant> unused = new LinkedHashSet<Variant>();	//Oldest first
+	private static long unusedBytes;
+	private static ExecutorService worker;
+
+	private VariantCache() {
+		//Only static functions
+	}
+	
+	/**
+	 * JJ> Gets a variant of a source image with the specified effects and starts making it if nobody has
+	 *     asked for it before. Every variant returned must be given back through release() when no longer used.
+	 * @param original The source image
+	 * @param source Content identifier for the source image from getContentId()
+	 */
+	static synchronized Variant acquire( BufferedImage original, long source, int width, int height, boolean blur, boolean emboss, int tint ) {
+		Variant variant = new Variant(original, source, width, height, blur, emboss, tint);
+		Variant found = variants.get(variant);
+		
+		//Reuse existing one
+		if( found != null )
+		{
+			if( found.references++ == 0 && unused.remove(found) ) unusedBytes -= found.getBytes();
+			return found;
+		}
+		
+		//Nothing to do if there are no effects
+		if( !blur && !emboss && tint == Image2D.NO_RGB_TINT && width == original.getWidth() && height == original.getHeight() )
+		{
+			variant.image = original;
+			variant.original = null;
+		}
+		else
+		{
+			if( worker == null ) worker = Executors.newSingleThreadExecutor(new ThreadFactory() {
+				public Thread newThread( Runnable task ) {
+					Thread thread = new Thread(task, "Image processing");
+					thread.setDaemon(true);
+					thread.setPriority(Thread.MIN_PRIORITY);
+					return thread;
+				}
+			});
+			worker.execute(variant);
+		}
+		
+		variant.references = 1;
+		variants.put(variant, variant);
+		return variant;
+	}
+	
+	/**
+	 * JJ> Takes one more reference to a variant that is already in use, for example by a render snapshot
+	 *     that draws it on another thread. Must be given back through release() like acquire() does.
+	 */
+	static synchronized void retain( Variant variant ) {
+		if( variant == null ) return;
+		if( variant.references++ == 0 && unused.remove(variant) ) unusedBytes -= variant.getBytes();
+	}
+	
+	/**
+	 * JJ> Gives back a variant returned by acquire(). Variants are only thrown away when nobody uses them
+	 *     and the cache is over its memory budget.
+	 */
+	static synchronized void release( Variant variant ) {
+		if( variant == null || --variant.references > 0 ) return;
+		unused.add(variant);
+		unusedBytes += variant.getBytes();
+		
+		//Throw away the oldest ones until we are within budget
+		long budget = GameEngine.getConfig().variantCacheSize * 1024L * 1024L;
+		Iterator<Variant> oldest = unused.iterator();
+		while( unusedBytes > budget && oldest.hasNext() )
+		{
+			Variant remove = oldest.next();
+			oldest.remove();
+			variants.remove(remove);
+			unusedBytes -= remove.getBytes();
+			RotationCache.invalidate(remove);
+			if( remove.processed ) remove.image.flush();
+		}
+	}
+	
+	/**
+	 * JJ> Makes a identifier from the pixels of a image, so that images that look the same get the same number
+	 */
+	static long getContentId( BufferedImage image ) {
+		int width = image.getWidth(), height = image.getHeight();
+		int[] pixels = image.getRGB(0, 0, width, height, null, 0, width);
+		
+		//64-bit FNV-1a
+		long hash = 0xcbf29ce484222325L;
+		hash = (hash ^ width) * 0x100000001b3L;
+		hash = (hash ^ height) * 0x100000001b3L;
+		for( int pixel : pixels ) hash = (hash ^ pixel) * 0x100000001b3L;
+		return hash;
+	}
+	
+	/**
+	 * JJ> Applies the effects. Everything works on a plain ARGB image so that the filters do not need any
+	 *     colour conversions and the tint can be done directly on the pixel array, which is a lot faster
+	 *     than getRGB()/setRGB() per pixel. The result is copied into a image compatible with the screen.
+	 */
+	private static BufferedImage process( BufferedImage original, int width, int height, boolean blur, boolean emboss, int tint ) {
+		BufferedImage work = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+		Graphics2D g = work.createGraphics();
+		GameEngine.getGraphicsSettings(g);
+		g.drawImage(original, 0, 0, width, height, null);
+		g.dispose();
+		
+		if( blur || emboss )
+		{
+			BufferedImage swap = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+			if( blur )
+			{
+				BLUR.filter(work, swap);
+				BufferedImage temp = work; work = swap; swap = temp;
+			}
+			if( emboss ) 
+			{
+				EMBOSS.filter(work, swap);
+				work = swap;
+			}
+		}
+		
+		if( tint != Image2D.NO_RGB_TINT )
+		{
+			int[] pixels = ((DataBufferInt)work.getRaster().getDataBuffer()).getData();
+			for( int i = 0; i < pixels.length; i++ ) pixels[i] &= tint;
+		}
+		
+		BufferedImage result = GameEngine.createBufferedImage(width, height);
+		g = result.createGraphics();
+		g.setComposite(AlphaComposite.Src);
+		g.drawImage(work, 0, 0, null);
+		g.dispose();
+		return result;
+	}
+}
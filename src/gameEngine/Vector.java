@@ -39,6 +39,16 @@ public class Vector {
     	return new Vector(x,y);
     }
     
+    public void set(float x, float y){
+    	this.x = x;
+    	this.y = y;
+    }
+    
+    public void set(Vector v){
+    	x = v.x;
+    	y = v.y;
+    }
+    
     public boolean equals(Vector vec){
     	return x == vec.x && y == vec.y;
     }
@@ -100,6 +110,27 @@ public class Vector {
 			return 0.01f;
 	}
 	
+	/**
+	 * JJ> Length of this vector squared. Cheaper than length() since there is no square root,
+	 *     so use this when comparing distances (compare against the distance squared).
+	 */
+	public float lengthSq() {
+		return x*x + y*y;
+	}
+	
+	/**
+	 * JJ> Distance squared between two points, without making any new Vectors
+	 */
+	public static float distanceSq(Vector a, Vector b){
+		return distanceSq(a.x, a.y, b.x, b.y);
+	}
+	
+	public static float distanceSq(float ax, float ay, float bx, float by){
+		float dx = ax - bx;
+		float dy = ay - by;
+		return dx*dx + dy*dy;
+	}
+	
 	public void rotateTo(float radian){
 		float length = length();
 		x = (float)Math.cos(radian) * length;
@@ -3,8 +3,9 @@ package narwhal;
 import java.util.ArrayList;
 import java.util.Random;
 
-import gameEngine.GameObject;
+import gameEngine.GameEngine;
 import gameEngine.Input;
+import gameEngine.Team;
 import gameEngine.Vector;
 
 /**
@@ -25,7 +26,7 @@ public class AI extends Spaceship {
 	private aiType    type;
 	private aiState   state;
 	private long 	  aiTimer;
-	ArrayList<GameObject>	entities;		// Contains all gameObjects in the universe...
+	private final Random rand;				// Seeded from the world so that the same game always plays out the same way
 	
 	enum aiType{
 		PLAYER,		 //This one is player controlled
@@ -44,7 +45,8 @@ public class AI extends Spaceship {
 	}
 	
 	public AI(SpaceshipTemplate name, String team, Game world) {
-		super(name, team, world);
+		super(name, Team.getID(team), world);
+		rand = world.newRandom();
 	}
 	
 	public void instantiate(Vector pos, aiType AI) {
@@ -62,33 +64,30 @@ public class AI extends Spaceship {
 			state 		= aiState.INTERCEPT;
 			keys 		= new Input();
 		}
-		
-		//Set references
-		//TODO unessecary to do here, move to constructor or replace functions
-		entities 		= world.getEntityList();
 	}
 	
 	private boolean invalidTarget(){
 		if( target == null ) 				return true;
 		if( !target.active() ) 				return true;
 		if( target.equals(this) ) 			return true;
-		if( target.team.equals(this.team) ) return true;
+		if( !Team.isEnemy(target.team, this.team) ) return true;
 		if( target.disguised != null )		return true;
 		return false;
 	}
 		
-	public void update() {		
+	/**
+	 * JJ> Runs the AI. This only changes our own controls and AI state and only looks at what the
+	 *     other objects were like after the previous update, so every AI can think at the same time.
+	 *     The controls are then used by Spaceship.update() like any player input would be.
+	 */
+	public void think() {		
 		
 		//Avoid collisions with planets, this is done outside the normal AI loop so that it is
 		//calculated realtime. If this is a resource hog, then we can implement a throttler
 		findPath();
 		
 		//Don't do AI
-		if( state == aiState.DISABLED || aiTimer > System.currentTimeMillis() )
-		{
-			super.update();
-			return;
-		}
+		if( state == aiState.DISABLED || aiTimer > GameEngine.getGameTime() ) return;
 
 		//Figure out what AI to use
 		switch( type )
@@ -108,14 +107,9 @@ public class AI extends Spaceship {
 			//Player controlled, don't run any AI
 			default: case PLAYER:				break;
 		}
-				
-		super.update();
 	}
 	
 	private void doFoolAI() {
-		//Randomizer
-		Random rand = new Random();
-
 		//Try to stick to a single target
 		if( invalidTarget() )
 		{
@@ -144,7 +138,7 @@ public class AI extends Spaceship {
 			}
 			
 			//Slow and steady follow
-			aiTimer = System.currentTimeMillis() + 200 + rand.nextInt(250);
+			aiTimer = GameEngine.getGameTime() + 200 + rand.nextInt(250);
 		}
 		
 		//AI State - Combat
@@ -167,7 +161,7 @@ public class AI extends Spaceship {
 			keys.mousePos = target.getPosCentre().plus( new Vector(rand.nextInt(20)-10, rand.nextInt(20)-10) );
 			
 			//Combat intensive
-			aiTimer = System.currentTimeMillis() + rand.nextInt(50) + 100;
+			aiTimer = GameEngine.getGameTime() + rand.nextInt(50) + 100;
 		}
 		
 		//AI State - Patrol
@@ -185,7 +179,7 @@ public class AI extends Spaceship {
 			else 								   keys.up = true;
 
 			//Slow reaction in patrol mode
-			aiTimer = System.currentTimeMillis() + rand.nextInt(300) + 450;
+			aiTimer = GameEngine.getGameTime() + rand.nextInt(300) + 450;
 		}	
 	}
 
@@ -195,9 +189,6 @@ public class AI extends Spaceship {
 	}
 
 	private void doBruteAI() {
-		//Randomizer
-		Random rand = new Random();
-
 		//Try to stick to a single target
 		if( invalidTarget() )
 		{
@@ -243,7 +234,7 @@ public class AI extends Spaceship {
 			keys.mousePos = target.getPosCentre();
 			
 			//Slow and steady follow
-			aiTimer = System.currentTimeMillis() + 200 + rand.nextInt(250);
+			aiTimer = GameEngine.getGameTime() + 200 + rand.nextInt(250);
 		}
 		
 		//AI State - Combat
@@ -263,7 +254,7 @@ public class AI extends Spaceship {
 			keys.mousePos = target.getPosCentre();
 			
 			//Combat intensive
-			aiTimer = System.currentTimeMillis() + rand.nextInt(20);
+			aiTimer = GameEngine.getGameTime() + rand.nextInt(20);
 		}
 		
 		//AI State - Patrol
@@ -281,7 +272,7 @@ public class AI extends Spaceship {
 			else 									   keys.up = true;
 
 			//Slow reaction in patrol mode
-			aiTimer = System.currentTimeMillis() + rand.nextInt(300) + 450;
+			aiTimer = GameEngine.getGameTime() + rand.nextInt(300) + 450;
 		}	
 	}
 
@@ -290,9 +281,6 @@ public class AI extends Spaceship {
 	 *     A dangerous combination between the other AI types. Dodges enemy fire.
 	 */
 	private void doControllerAI() {
-		//Randomizer
-		Random rand = new Random();
-
 		//We change targets very often, depending on the situation
 		target = getClosestTarget((radarLevel+1)*800);
 		
@@ -363,7 +351,7 @@ public class AI extends Spaceship {
 			keys.mousePos = target.getPosCentre();
 			
 			//Slow and steady follow
-			aiTimer = System.currentTimeMillis() + 200 + rand.nextInt(250);
+			aiTimer = GameEngine.getGameTime() + 200 + rand.nextInt(250);
 		}
 		
 		//AI State - Combat
@@ -383,7 +371,7 @@ public class AI extends Spaceship {
 			keys.mousePos = target.getPosCentre();
 			
 			//Combat intensive
-			aiTimer = System.currentTimeMillis() + rand.nextInt(20);
+			aiTimer = GameEngine.getGameTime() + rand.nextInt(20);
 		}
 		
 		//AI State - Retreat
@@ -417,7 +405,7 @@ public class AI extends Spaceship {
 			keys.mousePos.rotateTo(pos.minus(target.getPosCentre()).getAngle());
 			
 			//Slow reaction retreat
-			aiTimer = System.currentTimeMillis() + 500 + rand.nextInt(350);
+			aiTimer = GameEngine.getGameTime() + 500 + rand.nextInt(350);
 		}
 		
 		//AI State - Patrol
@@ -435,7 +423,7 @@ public class AI extends Spaceship {
 			else 									   keys.up = true;
 
 			//Slow reaction in patrol mode
-			aiTimer = System.currentTimeMillis() + rand.nextInt(300) + 450;
+			aiTimer = GameEngine.getGameTime() + rand.nextInt(300) + 450;
 		}		
 	}		
 	
@@ -447,12 +435,11 @@ public class AI extends Spaceship {
 		//Combat intensive action doesn't need pathfinding
 		if( state == aiState.DISABLED || state == aiState.COMBAT ) return;
 
-		//Go through every entity in the game
-		for(int i = 0; i < entities.size(); i++)
+		//Go through every planet in the game
+		ArrayList<Planet> planets = world.getEntities().getPlanets();
+		for(int i = 0; i < planets.size(); i++)
 		{
-			//Only check planets
-			if( !(entities.get(i) instanceof Planet) ) continue;						
-			Planet obstacle = (Planet)entities.get(i);
+			Planet obstacle = planets.get(i);
 			
 			//Skip inactive objects
 			if( !obstacle.active() ) continue;
@@ -475,41 +462,18 @@ public class AI extends Spaceship {
 	}
 
 	/**
-	 * JJ> This loops through every active Spaceship in the game to find a valid
-	 *     enemy target that is active and not invisible for us.
-	 * @return The closest alive enemy target to this Spaceship
+	 * JJ> Asks the world's TargetIndex for a valid enemy target that is active and not invisible for us.
+	 * @return The closest alive enemy target to this Spaceship, or this Spaceship if there are none
 	 */
 	private Spaceship getClosestTarget(float maxDistance) {
-		Spaceship bestTarget = this;
-		float bestDistance = Float.MAX_VALUE;
+		TargetIndex targets = world.getTargetIndex();
 		
-		//Go through every entity in the game
-		for(int i = 0; i < entities.size(); i++)
-		{
-			//Skip non-spaceships
-			if( !(entities.get(i) instanceof Spaceship) ) continue;						
-			Spaceship target = (Spaceship)entities.get(i);
-			
-			//Don't target ourself, that would be silly
-			if( target == this || !target.active() ) continue;
-			
-			//Don't target invisible or disguised enemies
-			if( target.disguised != null || target.cloaked ) continue;
-			
-			//Don't target friendlies
-			if( target.team.equals(this.team) ) continue;
-						
-			//Calculate distance. If it is less than the last target, keep this one instead
-			float dist = getDistanceTo(target);
-			if( dist < bestDistance && dist < maxDistance ) 
-			{	
-				bestTarget = target;
-				bestDistance = dist;
-				
-				//If we are looking at it and it's close, then it's good enough for us!
-				if( dist < 800 && facingTarget(target) ) break;
-			}
-		}
+		//If we are looking at something close, then it's good enough for us!
+		Spaceship bestTarget = targets.findClosestEnemy(this, Math.min(800, maxDistance), true);
+		
+		//Otherwise take whatever is closest
+		if( bestTarget == null ) bestTarget = targets.findClosestEnemy(this, maxDistance, false);
+		if( bestTarget == null ) bestTarget = this;
 		
 		//Return to patrol AI if no enemy was found
 		if(target == this ) state = aiState.PATROL;
@@ -522,7 +486,7 @@ public class AI extends Spaceship {
 		if( !invalidTarget() )
 		{
 			//Only if looking at the target and it is close enough
-			if( facingTarget(target) && getDistanceTo(target) < distance ) return target;
+			if( facingTarget(target) && getDistanceSqTo(target) < distance*distance ) return target;
 		}
 		
 		//Current target isn't good enough, find another one instead
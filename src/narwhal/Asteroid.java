@@ -4,22 +4,46 @@ import java.util.Random;
 import gameEngine.*;
 
 public class Asteroid extends GameObject {
+	private static final int IMAGE_COUNT = 4;
+	private static final float SIZE_STEP = 0.1f;		//Sizes are rounded to this so that asteroids can share images
+	private static final int SIZE_COUNT = 20;			//Largest size is SIZE_COUNT*SIZE_STEP
+	private static Image2D[][] sprites;					//Every asteroid image pre-scaled to every size
+	
 	static int meteorCount = 0;
 	private float size;
 	
+	/**
+	 * JJ> Loads every asteroid image once and makes a scaled version for every size. Asteroids then only
+	 *     need a cheap instance of one of these, so spawning new asteroids in the middle of a fight does
+	 *     not need to load anything.
+	 */
+	private static void loadSprites() {
+		sprites = new Image2D[IMAGE_COUNT][SIZE_COUNT];
+		for( int i = 0; i < IMAGE_COUNT; i++ )
+		{
+			Image2D load = new Image2D("data/asteroid" + i + ".png");
+			for( int j = 0; j < SIZE_COUNT; j++ )
+			{
+				sprites[i][j] = load.instance();
+				sprites[i][j].scale( (j+1) * SIZE_STEP );
+				sprites[i][j].getSnapshot();
+			}
+		}
+	}
+	
 	public Asteroid( Vector pos, Game world, float size ) {
-		super(world);
-		Random rand = new Random();
+		super(world, Archetype.ASTEROID);
+		Random rand = world.newRandom();
 		
 		//What world do we spawn inside?
 		this.world = world;
 		
 		//Randomize image
-		image = new Image2D("data/asteroid" + rand.nextInt(4) + ".png");
-				
 		this.size = size;
 		if( size == 0 ) this.size = 1 + rand.nextFloat();
-		image.scale( this.size );
+		if( sprites == null ) loadSprites();
+		int scale = Math.min(SIZE_COUNT, Math.max(1, Math.round(this.size / SIZE_STEP)));
+		image = sprites[rand.nextInt(IMAGE_COUNT)][scale-1].instance();
 				
 		if(rand.nextBoolean()) image.verticalFlip();
 		if(rand.nextBoolean()) image.horizontalFlip();
@@ -52,9 +76,9 @@ public class Asteroid extends GameObject {
 		//Spawn 3 new asteroids
 		if( size > 0.75 )
 		{
-			world.getEntityList().add( new Asteroid( pos.clone(), world, size / 2 ) );
-			world.getEntityList().add( new Asteroid( pos.clone(), world, size / 2 ) );
-			world.getEntityList().add( new Asteroid( pos.clone(), world, size / 2 ) );
+			world.spawn( new Asteroid( pos.clone(), world, size / 2 ) );
+			world.spawn( new Asteroid( pos.clone(), world, size / 2 ) );
+			world.spawn( new Asteroid( pos.clone(), world, size / 2 ) );
 		}
 		
 		super.destroy();
@@ -22,35 +22,96 @@ import gameEngine.*;
 import gameEngine.Configuration.VideoQuality;
 
 import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
 import java.awt.image.VolatileImage;
-import java.io.*;
+import java.io.File;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Random;
-
-import javax.swing.ImageIcon;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
 
 /**
- * JJ> This class generates a nice random background for us
+ * JJ> This class generates a nice random background for us. The universe is split into screen sized
+ *     tiles, but a tile is only generated once it is close to the camera. Every tile has its own seed
+ *     made from the world seed, so a tile looks the same no matter when or in which order it is made.
+ *     That means we can throw away tiles we have not seen for a while and simply make them again later.
  * @author Johan Jansen and Anders Eie
  *
  */
 public class Background {
 	
 	//Data that only need to be loaded once into memory
-	private static ArrayList<Image2D> nebulaList;
-	private static ImageIcon[] stars;
+	private static ArrayList<Image> nebulaList;
+	private static volatile FutureTask<StarAtlas> stars;
+	private static ExecutorService worker;
+	
+	//How many updates ahead we look for tiles to generate in the direction we are moving
+	private static final int PREFETCH_UPDATES = 60;
 	
 	private int universeSize;
-	private Vector[][] bgPos;
-	private Image[][] universe;
+	private long seed;
+	private HashMap<Integer, Tile> tiles;
+	private long tileBytes, cachedBytes;
+	private long frame;
+	
+	//The visible part of the universe, already scaled to the screen and only scrolled when the camera moves
+	private VolatileImage view;
+	private int viewX, viewY;
+	private boolean viewLost;
+	private boolean viewIncomplete;		//Some tiles were not ready when the view was drawn
 	
 	//The resolution of the background
 	//private static final Vector BG_SIZE = new Vector(800, 640);
 	private static Vector BG_SIZE;
 	
 	/**
-	 * JJ> Draw the entire scene on a BufferedImage so that we do not need to redraw and recalculate every
-	 *     component every update. Instead we just draw the BufferedImage.
+	 * JJ> A single background tile. The image is null until the tile has been generated.
+	 */
+	private static final class Tile implements Runnable {
+		volatile BufferedImage image;
+		private final long seed;
+		private boolean evicted;			//Thrown out of the cache before it was made, do not bother
+		private long lastSeen;				//Last frame this tile was drawn or prefetched
+		
+		private Tile( long seed ) {
+			this.seed = seed;
+		}
+		
+		/**
+		 * JJ> Generates the tile unless it is already done. Safe to call from any thread.
+		 */
+		@Override
+		public synchronized void run() {
+			if( image != null || evicted ) return;
+			try
+			{
+				image = generateTile(new Random(seed));
+			}
+			catch (OutOfMemoryError e) 
+			{
+				//Ouch, we ran out of memory, the least we can do now is prevent it from crashing
+				Log.warning( e.toString() );
+				Profiler.memoryReport();
+				evicted = true;
+			}
+		}
+		
+		private synchronized void evict() {
+			evicted = true;
+			if( image != null ) image.flush();
+			image = null;
+		}
+	}
+	
+	/**
+	 * JJ> Sets up the background. Nothing is generated here, tiles are made when the camera gets
+	 *     close to them so that even huge universes are ready instantly.
 	 */
 	public Background(int size, long seed){
 		Profiler.begin("Initializing background");
@@ -71,18 +132,30 @@ public class Background {
 	}
 	
 	//Draw a random nebula
-	private void drawNebula(Random rand, Graphics2D g) {
+	private static void drawNebula(Random rand, Graphics2D g) {
 	
 		//Figure out what it looks like
-		Image2D nebula = nebulaList.get( rand.nextInt(nebulaList.size()) );
+		Image nebula = nebulaList.get( rand.nextInt(nebulaList.size()) );
 
 		//Make it unique
-		nebula.setAlpha( Math.max(0.15f, rand.nextFloat()) );
-		if( rand.nextBoolean() ) nebula.horizontalFlip();
-		if( rand.nextBoolean() ) nebula.verticalFlip();
+		float alpha = Math.max(0.15f, rand.nextFloat());
+		AffineTransform xs = new AffineTransform();
+		if( rand.nextBoolean() ) 
+		{
+			xs.scale(-1.0, 1.0);
+			xs.translate(-BG_SIZE.getX(), 0);
+		}
+		if( rand.nextBoolean() )
+		{
+			xs.scale(1.0, -1.0);
+			xs.translate(0, -BG_SIZE.getY());
+		}
 
 		//Now draw it
-		nebula.draw(g, 0, 0);
+		Composite reset = g.getComposite();
+		g.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, alpha));
+		g.drawImage(nebula, xs, null);
+		g.setComposite(reset);
 	}
 	
 	/**
@@ -90,108 +163,112 @@ public class Background {
 	 * @param rand
 	 * @param g
 	 */
-	private void drawRandomStarfield(Random rand, Graphics2D g) {
+	private static void drawRandomStarfield(Random rand, Graphics2D g) {
+		StarAtlas atlas = getStars();
 		int numberOfStars = 125 + rand.nextInt(250);
 		for (int i = 0; i < numberOfStars; ++i)
 		{
-			Image starImage = stars[rand.nextInt(stars.length)].getImage();
-			int x = rand.nextInt(BG_SIZE.getX() - starImage.getWidth(null) );
-			int y = rand.nextInt(BG_SIZE.getY() - starImage.getHeight(null));
-			g.drawImage(starImage, x, y, null);
+			int star = rand.nextInt(atlas.size());
+			int x = rand.nextInt(BG_SIZE.getX() - atlas.getWidth(star) );
+			int y = rand.nextInt(BG_SIZE.getY() - atlas.getHeight(star));
+			atlas.draw(g, star, x, y);
 		}		
 	}
 		
 	private void loadNebulas(){
 		String[] fileList = ResourceMananger.getFileList("/data/nebula/");
 
-		//Load nebulas into memory
-		nebulaList = new ArrayList<Image2D>();
+		//Load nebulas into memory. Tiles are generated on a worker thread, so we keep plain images
+		//that are never changed instead of Image2D that would need to be flipped for every tile.
+		nebulaList = new ArrayList<Image>();
 		for( String fileName : fileList )
 		{
 			Image2D load = new Image2D(fileName, BG_SIZE.getX(), BG_SIZE.getY() );
-			nebulaList.add( load );
+			nebulaList.add( load.getSnapshot() );
 		}
 	}
 	
 	/**
-	 * AE> Predrawing the stars and placing them in the static ArrayList stars
+	 * JJ> Loads the star sprites from the cache file. If there is no usable cache file the stars are drawn
+	 *     again and saved on the worker thread, so that we do not have to wait for it here.
 	 */
 	private void loadStars() {
+		final File starFile = new File("stars.cache");
 		
-		// Loading stars from resource file if possible
-		File starFile = new File("stars.resource");
-		if (starFile.exists())
+		//Remove the cache file used by older versions
+		File oldFile = new File("stars.resource");
+		if( oldFile.exists() && !oldFile.delete() ) Log.warning("Could not delete old star resource file.");
+		
+		//Ready to use straight away
+		StarAtlas cached = StarAtlas.load(starFile);
+		if( cached != null )
 		{
-			try
-			{
-				FileInputStream starFileStream = new FileInputStream(starFile);
-				ObjectInputStream starStream = new ObjectInputStream(starFileStream);
-				stars = (ImageIcon[])starStream.readObject();
-				starStream.close();
-				Log.message("Sucessfully loaded stars from file");
-				return;
-			}
-			catch (Exception e) 
-			{
-				Log.message("Error reading star resource file, creating a new one. (" + e.toString() + ")");
-				if (!starFile.delete()) Log.warning("Could not delete old, corrupted star resource file.");
-			}
+			stars = finished(cached);
+			Log.message("Sucessfully loaded stars from file");
+			return;
 		}
-		else Log.message("Star resource file not found, creating it.");
 		
-		//Load Stars into memory
-		Random rand = new Random();
-		ArrayList<ImageIcon> tmpStars = new ArrayList<ImageIcon>();
-		for (int s = 1; s < 40; ++s)
-		{
-			VolatileImage star = GameEngine.createVolatileImage(s, s);
-			Graphics2D starGraph = star.createGraphics();
-			for (int c = 0; c < 256; c += 16)
-			{
-				//Clear background
-				starGraph.setBackground(new Color(0,0,0,0));
-				starGraph.clearRect(0, 0, star.getWidth(), star.getHeight());
-				
-				Color col;
-				int rareStar = rand.nextInt(20);	
-				for (int k = 0; k < s*0.6; ++k)
-				{
-					if(rareStar == 1)		col = new Color(c, 0, 0, (int)(Math.pow(255, ((float)k/(float)(s*0.6)))));
-					else					col = new Color((int)(64+((float)k/(float)s)*192f), 64+(int)(((float)k/(float)s)*192f), c, (int)(Math.pow(255, ((float)k/(float)(s*0.6)))));
-					
-					starGraph.setColor(col);
-					starGraph.fillOval(k, k, s-(2*k), s-(2*k));
-				}
-				
-				//TODO: bad! it seems 40*256=10240 elements are added to this ArrayList
-				tmpStars.add(new ImageIcon(star.getSnapshot()));
+		//Make new ones, any tile that needs them will wait until they are done
+		if( !starFile.exists() ) Log.message("Star cache file not found, creating it.");
+		stars = new FutureTask<StarAtlas>(new Callable<StarAtlas>() {
+			public StarAtlas call() {
+				StarAtlas atlas = StarAtlas.generate();
+				atlas.save(starFile);
+				return atlas;
 			}
-			
-			//Release resources
-			starGraph.dispose();
+		});
+		getWorker().execute(stars);
+	}
+	
+	/**
+	 * JJ> Gets the star sprites, waiting for them if they are still being made. If that failed they are
+	 *     drawn again right here, without trying to save them.
+	 */
+	private static StarAtlas getStars() {
+		FutureTask<StarAtlas> task = stars;
+		try
+		{
+			return task.get();
 		}
-				
-		stars = new ImageIcon[0];
-		stars = tmpStars.toArray(stars);
-		
-		// Writing stars to file
-		if ( !starFile.exists() )
+		catch (Exception e) 
 		{
-			try
-			{
-				if (!starFile.createNewFile()) throw new Exception("Cannot create new star resource file");
-				FileOutputStream starFileStream = new FileOutputStream(starFile);
-				ObjectOutputStream starStream = new ObjectOutputStream(starFileStream);
-				starStream.writeObject(stars);
-				starStream.close();
-			}
-			catch (Exception e) 
+			Log.warning("Could not make star sprites in the background, trying again: " + e.toString());
+			synchronized( Background.class )
 			{
-				Log.warning("Error writing star resource file: " + e.toString());
+				if( stars == task ) stars = finished(StarAtlas.generate());
 			}
+			return getStars();
 		}
 	}
 	
+	/**
+	 * JJ> Wraps star sprites that are already done, so that they can be used like the ones being made
+	 */
+	private static FutureTask<StarAtlas> finished( final StarAtlas atlas ) {
+		FutureTask<StarAtlas> task = new FutureTask<StarAtlas>(new Callable<StarAtlas>() {
+			public StarAtlas call() {
+				return atlas;
+			}
+		});
+		task.run();
+		return task;
+	}
+	
+	/**
+	 * JJ> The thread that generates tiles (and star sprites) in the background
+	 */
+	private static synchronized ExecutorService getWorker() {
+		if( worker == null ) worker = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			public Thread newThread( Runnable task ) {
+				Thread thread = new Thread(task, "Background generation");
+				thread.setDaemon(true);
+				thread.setPriority(Thread.MIN_PRIORITY);
+				return thread;
+			}
+		});
+		return worker;
+	}
+	
 	public Vector getUniverseSize() {
 		return new Vector( universeSize * GameEngine.getScreenWidth(), universeSize * GameEngine.getScreenHeight() );
 	}
@@ -215,89 +292,259 @@ public class Background {
 	}
 
 	/**
-	 * Generates a new universe with bounds equal to (size*size)
+	 * Sets up a new universe with bounds equal to (size*size)
 	 * @param size how big?
 	 * @param seed randomizer
 	 */
 	private void generateWorld(int size, long seed) {
-		Random rand = new Random(seed);
-		universe = new Image[size][size];
-		bgPos = new Vector[size][size];
+		this.seed = seed;
 		universeSize = size;
+		tiles = new HashMap<Integer, Tile>();
+		tileBytes = 4L * BG_SIZE.getX() * BG_SIZE.getY();
+		cachedBytes = 0;
+	}
+	
+	/**
+	 * JJ> Draws a single tile from a random generator that is only used for this tile
+	 */
+	private static BufferedImage generateTile(Random rand) {
+		BufferedImage buffer = GameEngine.createBufferedImage(BG_SIZE.getX(), BG_SIZE.getY());
+		Graphics2D g = buffer.createGraphics();
+    	
+        //I: Nebula (10% chance) or Black background (90%)
+		g.setColor(Color.BLACK);
+		g.fillRect(0, 0, BG_SIZE.getX(), BG_SIZE.getY());
+		if( rand.nextInt(100) <= 10 ) drawNebula(rand, g);
+
+		//II: Stars
+		drawRandomStarfield(rand, g);
+
+		//All done! Free any resources we have used
+		g.dispose();
+		return buffer;
+	}
+	
+	/**
+	 * JJ> Mixes the world seed and the tile position into a seed for that tile, so that neighbouring
+	 *     tiles do not end up with similar looking random numbers
+	 */
+	private long getTileSeed(int x, int y) {
+		long hash = seed + x * 0x9E3779B97F4A7C15L + y * 0xC2B2AE3D27D4EB4FL;
+		hash = (hash ^ (hash >>> 30)) * 0xBF58476D1CE4E5B9L;
+		hash = (hash ^ (hash >>> 27)) * 0x94D049BB133111EBL;
+		return hash ^ (hash >>> 31);
+	}
+	
+	/**
+	 * JJ> Gets a tile and marks it as seen this frame. Tiles that are not in the cache yet are queued for
+	 *     the worker thread, after throwing out the tiles we have not seen for the longest time.
+	 * @param force Always get the tile, even if it means going over the memory budget
+	 * @return The tile, or null if it is outside the universe or there was no room for it
+	 */
+	private Tile requestTile(int x, int y, boolean force) {
+		if( x < 0 || y < 0 || x >= universeSize || y >= universeSize ) return null;
 		
-		for(int i = 0; i < size; i++)
-			for(int j = 0; j < size; j++)
+		Integer key = x * universeSize + y;
+		Tile tile = tiles.get(key);
+		if( tile == null )
+		{
+			if( !makeRoom() && !force ) return null;
+			
+			tile = new Tile( getTileSeed(x, y) );
+			tiles.put(key, tile);
+			cachedBytes += tileBytes;
+			getWorker().execute(tile);
+		}
+		tile.lastSeen = frame;
+		return tile;
+	}
+	
+	/**
+	 * JJ> Throws out the least recently seen tiles until there is room for one more within the memory
+	 *     budget. Tiles that were seen this frame are never thrown out.
+	 * @return false if there was not enough room
+	 */
+	private boolean makeRoom() {
+		long budget = GameEngine.getConfig().backgroundCacheSize * 1024L * 1024L;
+		while( cachedBytes + tileBytes > budget )
+		{
+			Integer oldest = null;
+			long oldestSeen = frame;
+			for( Map.Entry<Integer, Tile> entry : tiles.entrySet() )
 			{
-				try
+				if( entry.getValue().lastSeen < oldestSeen )
 				{
-					Image buffer = GameEngine.createVolatileImage(BG_SIZE.getX(), BG_SIZE.getY());
-		    		Graphics2D g = (Graphics2D)buffer.getGraphics();
-		        	
-		            //I: Nebula (10% chance) or Black background (90%)
-	    			g.setColor(Color.BLACK);
-	    			g.fillRect(0, 0, BG_SIZE.getX(), BG_SIZE.getY());
-	    			if( rand.nextInt(100) <= 10 ) drawNebula(rand, g);
-	
-		    		//II: Stars
-		    		drawRandomStarfield(rand, g);
-		    				    		
-		    		universe[i][j] = buffer;
-		    		bgPos[i][j] = new Vector(i*GameEngine.getScreenWidth(), j*GameEngine.getScreenHeight());
-
-		    		//All done! Free any resources we have used
-		    		g.dispose();
+					oldestSeen = entry.getValue().lastSeen;
+					oldest = entry.getKey();
 				}
-	    	    catch (OutOfMemoryError e) 
-	    	    {
-    	        	//Ouch, we ran out of memory, the least we can do now is prevent it from crashing
-    	        	Log.warning( e.toString() );
-    	        	Profiler.memoryReport();
-    	        	Runtime.getRuntime().runFinalization();
-	    	    }	    	   
+			}
+			if( oldest == null ) return false;
+			
+			tiles.remove(oldest).evict();
+			cachedBytes -= tileBytes;
+		}
+		return true;
+	}
+	
+	/**
+	 * JJ> Requests every tile that a screen at the specified position would overlap
+	 */
+	private void prefetch(float posX, float posY) {
+		final int SCREEN_X = GameEngine.getScreenWidth();
+		final int SCREEN_Y = GameEngine.getScreenHeight();
+		int x0 = (int)Math.floor(posX / SCREEN_X), x1 = (int)Math.floor((posX + SCREEN_X - 1) / SCREEN_X);
+		int y0 = (int)Math.floor(posY / SCREEN_Y), y1 = (int)Math.floor((posY + SCREEN_Y - 1) / SCREEN_Y);
+		for(int i = x0; i <= x1; i++)
+			for(int j = y0; j <= y1; j++)
+			{
+				requestTile(i, j, false);
 			}
 	}
 
-	public void drawBackground(Graphics2D g, Vector position, Vector speed) {
+	/**
+	 * JJ> Draws every tile that overlaps the specified part of the view, scaled up to screen size. Anything
+	 *     that was there before is cleared, also where there are no tiles.
+	 * @return How many tiles were drawn
+	 */
+	private int drawTiles(Graphics2D g, int posX, int posY, int x, int y, int width, int height) {
+		final int SCREEN_X = GameEngine.getScreenWidth();
+		final int SCREEN_Y = GameEngine.getScreenHeight();
 		int bg = 0;
-		Composite reset = g.getComposite();
 		
-		if( GameEngine.getConfig().getQualityMode() == VideoQuality.VIDEO_LOW )
+		//Clear it first, the camera can look past the edge of the universe (when shaking) where there are no tiles
+		g.setClip(x, y, width, height);
+		g.setColor(Color.BLACK);
+		g.fillRect(x, y, width, height);
+		
+		int x0 = Math.max(0, (int)Math.floor((posX + x) / (double)SCREEN_X));
+		int x1 = Math.min(universeSize-1, (int)Math.floor((posX + x + width - 1) / (double)SCREEN_X));
+		int y0 = Math.max(0, (int)Math.floor((posY + y) / (double)SCREEN_Y));
+		int y1 = Math.min(universeSize-1, (int)Math.floor((posY + y + height - 1) / (double)SCREEN_Y));
+		for(int i = x0; i <= x1; i++)
+			for(int j = y0; j <= y1; j++)
+			{
+				Tile tile = requestTile(i, j, true);
+				
+				//Not made yet, we cannot wait for the worker thread so do it ourselves. Unless the stars are 
+				//not done either, then we leave it empty and try again next frame instead of waiting for them.
+				BufferedImage image = tile.image;
+				if( image == null && stars.isDone() )
+				{
+					tile.run();
+					image = tile.image;
+				}
+				if( image == null )
+				{
+					viewIncomplete = true;
+					continue;
+				}
+				
+				g.drawImage( image, i*SCREEN_X - posX, j*SCREEN_Y - posY, SCREEN_X, SCREEN_Y, null );
+				bg++;
+			}
+		g.setClip(null);
+		return bg;
+	}
+	
+	/**
+	 * JJ> Brings the view up to date with the camera position. When the camera moves we only scroll what
+	 *     we already have and draw the strips that came into view, instead of scaling every visible tile
+	 *     to the screen again.
+	 * @return How many tiles were drawn
+	 */
+	private int updateView(int posX, int posY) {
+		final int SCREEN_X = GameEngine.getScreenWidth();
+		final int SCREEN_Y = GameEngine.getScreenHeight();
+		
+		//Everything needs to be drawn again if the image was lost or the screen has changed
+		//(drawing everything clears the whole image, so nothing of a new or restored image shows)
+		boolean redraw = false;
+		int status = VolatileImage.IMAGE_INCOMPATIBLE;
+		if( view != null && view.getWidth() == SCREEN_X && view.getHeight() == SCREEN_Y ) 
+			status = view.validate(GameEngine.getGraphicsConfiguration());
+		if( status == VolatileImage.IMAGE_INCOMPATIBLE )
 		{
-			//Without motion blur
-			g.setBackground(Color.BLACK);
-			g.clearRect(0, 0, GameEngine.getScreenWidth(), GameEngine.getScreenHeight());
+			if( view != null ) view.flush();
+			view = GameEngine.createVolatileImage(SCREEN_X, SCREEN_Y);
+			view.validate(GameEngine.getGraphicsConfiguration());
+			redraw = true;
 		}
-		else
+		else if( status == VolatileImage.IMAGE_RESTORED || viewLost || viewIncomplete || view.contentsLost() ) redraw = true;
+		
+		int dx = viewX - posX;
+		int dy = viewY - posY;
+		if( Math.abs(dx) >= SCREEN_X || Math.abs(dy) >= SCREEN_Y ) redraw = true;
+		viewX = posX;
+		viewY = posY;
+		
+		Graphics2D g = view.createGraphics();
+		GameEngine.getGraphicsSettings(g);
+		g.setComposite(AlphaComposite.Src);
+		int bg = 0;
+		viewIncomplete = false;
+		if( redraw )
 		{
-			//With motion blur
-			float blur = 1f / Math.max(1, speed.length()*0.125f);
-			g.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, blur));
+			bg += drawTiles(g, posX, posY, 0, 0, SCREEN_X, SCREEN_Y);
 		}
+		else if( dx != 0 || dy != 0 )
+		{
+			g.copyArea(0, 0, SCREEN_X, SCREEN_Y, dx, dy);
+			
+			//Left or right strip, then the top or bottom strip
+			if( dx > 0 )      bg += drawTiles(g, posX, posY, 0, 0, dx, SCREEN_Y);
+			else if( dx < 0 ) bg += drawTiles(g, posX, posY, SCREEN_X + dx, 0, -dx, SCREEN_Y);
+			if( dy > 0 )      bg += drawTiles(g, posX, posY, 0, 0, SCREEN_X, dy);
+			else if( dy < 0 ) bg += drawTiles(g, posX, posY, 0, SCREEN_Y + dy, SCREEN_X, -dy);
+		}
+		g.dispose();
+		
+		//Try again next frame if the image was lost while we were drawing
+		viewLost = view.contentsLost();
+		return bg;
+	}
 
-
-		for(int i = 0; i < universeSize; i++)
-			for(int j = 0; j < universeSize; j++)
+	public void drawBackground(Graphics2D g, Vector position, Vector speed) {
+		final int SCREEN_X = GameEngine.getScreenWidth();
+		final int SCREEN_Y = GameEngine.getScreenHeight();
+		Composite reset = g.getComposite();
+		frame++;
+		
+		//Keep the visible tiles from being thrown out, even if we do not need to draw them
+		int x0 = Math.max(0, (int)Math.floor(position.x / SCREEN_X));
+		int x1 = Math.min(universeSize-1, (int)Math.floor((position.x + SCREEN_X - 1) / SCREEN_X));
+		int y0 = Math.max(0, (int)Math.floor(position.y / SCREEN_Y));
+		int y1 = Math.min(universeSize-1, (int)Math.floor((position.y + SCREEN_Y - 1) / SCREEN_Y));
+		for(int i = x0; i <= x1; i++)
+			for(int j = y0; j <= y1; j++)
 			{
-				int x = bgPos[i][j].getX()-position.getX();
-				int y = bgPos[i][j].getY()-position.getY();
-				
-				//Only draw whatever we need to draw
-				if(x < -GameEngine.getScreenWidth() || x > GameEngine.getScreenWidth()) break;
-				if(++y > GameEngine.getScreenHeight()) break;
-				if(y < -GameEngine.getScreenHeight()) continue;
-				
-				g.drawImage( universe[i][j], x, y, GameEngine.getScreenWidth(), GameEngine.getScreenHeight(), null );
-				bg++;
-			}	
+				requestTile(i, j, true);
+			}
+		
+		int bg = updateView(position.getX(), position.getY());
+		
+		//With motion blur the view is blended over the previous frame, which leaves a trail behind everything
+		if( GameEngine.getConfig().getQualityMode() != VideoQuality.VIDEO_LOW )
+		{
+			float blur = 1f / Math.max(1, speed.length()*0.125f);
+			if( blur < 1 ) g.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, blur));
+		}
+		g.drawImage(view, 0, 0, null);
 
 		//Remove any blur effect
 		g.setComposite(reset);
+		
+		//Get the tiles around us and where we are heading ready before we need them
+		prefetch(position.x - SCREEN_X/2, position.y - SCREEN_Y/2);
+		prefetch(position.x + SCREEN_X/2, position.y + SCREEN_Y/2);
+		prefetch(position.x - SCREEN_X/2, position.y + SCREEN_Y/2);
+		prefetch(position.x + SCREEN_X/2, position.y - SCREEN_Y/2);
+		prefetch(position.x + speed.x*PREFETCH_UPDATES, position.y + speed.y*PREFETCH_UPDATES);
 
 		//Debug info
 		if( GameEngine.getConfig().debugMode )
 		{
 			g.setColor(Color.WHITE);
-			g.drawString("Backgrounds drawn: " + bg, 5, 80);
+			g.drawString("Backgrounds drawn: " + bg + " (" + tiles.size() + " cached)", 5, 80);
 		}
 	}
 }
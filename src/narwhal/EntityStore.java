@@ -0,0 +1,103 @@
+//********************************************************************************************
+//*
+//*    This file is part of Project Narwhal.
+//*
+//*    Project Narwhal is free software: you can redistribute it and/or modify it
+//*    under the terms of the GNU General Public License as published by
+//*    the Free Software Foundation, either version 3 of the License, or
+//*    (at your option) any later version.
+//*
+//*    Project Narwhal is distributed in the hope that it will be useful, but
+//*    WITHOUT ANY WARRANTY; without even the implied warranty of
+//*    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//*    General Public License for more details.
+//*
+//*    You should have received a copy of the GNU General Public License
+//*    along with Project Narwhal.  If not, see <http://www.gnu.org/licenses/>.
+//*
+//********************************************************************************************
+package narwhal;
+
+import java.util.ArrayList;
+
+import gameEngine.GameObject;
+
+/**
+ * JJ> Holds every GameObject in the universe. Besides the list of everything (in the order they were
+ *     spawned) each kind of object also gets a list of its own, so that code which only cares about
+ *     planets or spaceships can walk just those without checking the type of every single object.
+ *     The lists must only be changed through add() and removeInactive() so that they stay in sync.
+ * @author Johan Jansen and Anders Eie
+ */
+final class EntityStore {
+	private final ArrayList<GameObject> all = new ArrayList<GameObject>();
+	private final ArrayList<Spaceship> spaceships = new ArrayList<Spaceship>();
+	private final ArrayList<Interceptor> interceptors = new ArrayList<Interceptor>();
+	private final ArrayList<Asteroid> asteroids = new ArrayList<Asteroid>();
+	private final ArrayList<Planet> planets = new ArrayList<Planet>();
+	
+	/**
+	 * JJ> Adds a new object at the end of its lists. Objects that are added while the lists are being
+	 *     walked through are visited by the same walk.
+	 */
+	public void add( GameObject entity ) {
+		all.add(entity);
+		switch( entity.getArchetype() )
+		{
+			case SPACESHIP: 	spaceships.add( (Spaceship)entity );		break;
+			case INTERCEPTOR: 	interceptors.add( (Interceptor)entity );	break;
+			case ASTEROID: 		asteroids.add( (Asteroid)entity );			break;
+			case PLANET: 		planets.add( (Planet)entity );				break;
+		}
+	}
+	
+	/**
+	 * JJ> Removes every object that is no longer active from every list, keeping the order of the rest
+	 */
+	public void removeInactive() {
+		removeInactive(all);
+		removeInactive(spaceships);
+		removeInactive(interceptors);
+		removeInactive(asteroids);
+		removeInactive(planets);
+	}
+	
+	private static <T extends GameObject> void removeInactive( ArrayList<T> list ) {
+		int kept = 0;
+		for( int i = 0; i < list.size(); i++ )
+		{
+			T entity = list.get(i);
+			if( entity.active() ) list.set(kept++, entity);
+		}
+		
+		//Remove from the end so that nothing needs to be moved
+		for( int i = list.size()-1; i >= kept; i-- ) list.remove(i);
+	}
+	
+	/**
+	 * JJ> Every object in the universe, in the order they were spawned. Don't add or remove anything
+	 *     through this list, use add() and removeInactive() instead.
+	 */
+	public ArrayList<GameObject> getAll() {
+		return all;
+	}
+	
+	/**
+	 * JJ> Every Spaceship except interceptors, which are in getInterceptors()
+	 */
+	public ArrayList<Spaceship> getSpaceships() {
+		return spaceships;
+	}
+	
+	public ArrayList<Interceptor> getInterceptors() {
+		return interceptors;
+	}
+	
+	public ArrayList<Asteroid> getAsteroids() {
+		return asteroids;
+	}
+	
+	public ArrayList<Planet> getPlanets() {
+		return planets;
+	}
+}
@@ -24,6 +24,8 @@ import gameEngine.GameWindow.GameState;
 import java.awt.*;
 import java.util.ArrayList;
 import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import narwhal.AI.aiType;
 import narwhal.GameFont.FontType;
@@ -31,7 +33,12 @@ import narwhal.SpawnPoint.Type;
 
 
 public class Game {
-	private ArrayList<GameObject>	entities;		// Contains all gameObjects in the universe...
+	private static final int THINK_BATCH = 16;		// Entities that think on the same thread before the work is split up
+	
+	private EntityStore				entities;		// Contains all gameObjects in the universe, sorted by kind
+	private SpatialGrid<GameObject> entityGrid;		// Buckets entities by position for fast neighbour lookups
+	private TargetIndex				targetIndex;	// Where every spaceship was at the start of this update, for finding enemies
+	private GravityField gravityField;				// Gravity from planets, which never move
 	private Input 					keys;			// Class to read inputs from
 	private HUD						hud;			// User interface
 	private Shipyard                shipyard;		// The factory that spawns ships for us
@@ -39,19 +46,26 @@ public class Game {
 	private Camera					viewPort;		// Handles viewpoints and drawing
 	private Spaceship				player;
 	private Background 				background;
-	private boolean					victory;
+	private volatile boolean		victory;
+	private volatile boolean		playerAlive = true;	// Copy of player.active() for the render thread
+	private final RenderSnapshot.Buffer snapshots = new RenderSnapshot.Buffer();
+	private Random					random;			// Every random number in the game comes from here, so a seed always plays out the same
 		
 	private void generateWorld( long seed, int universeSize, ArrayList<SpawnPoint> spawnList ) {
-        Random rand = new Random(seed);
+        random = new Random(seed);
+        GameEngine.getParticleEngine().setSeed(seed);
         
 		// Size of the universe
 		this.universeSize = universeSize;
+		entityGrid = new SpatialGrid<GameObject>(universeSize * GameEngine.getScreenWidth(), universeSize * GameEngine.getScreenHeight());
+		targetIndex = new TargetIndex(universeSize * GameEngine.getScreenWidth(), universeSize * GameEngine.getScreenHeight());
+		gravityField = new GravityField(universeSize * GameEngine.getScreenWidth(), universeSize * GameEngine.getScreenHeight());
 
 		//Spawn every object
 		for(SpawnPoint spawn : spawnList) try 
 		{
 			//Randomize spawn position if needed
-			if(spawn.pos == null) spawn.pos = new Vector(rand.nextInt(GameEngine.getScreenWidth()*universeSize), rand.nextInt(GameEngine.getScreenHeight()*universeSize));
+			if(spawn.pos == null) spawn.pos = new Vector(random.nextInt(GameEngine.getScreenWidth()*universeSize), random.nextInt(GameEngine.getScreenHeight()*universeSize));
 
 			//AI Spaceship
 			if( spawn.type == Type.SPACESHIP )
@@ -83,14 +97,14 @@ public class Game {
 		}
 
 		//Initialize the HUD and bind it to the player's ship
-		hud = new HUD(player, entities);
+		hud = new HUD(player, entities.getSpaceships());
 		
 		//Generate random asteroids
 		for(int x = 0; x < universeSize; x++)
 			for(int y = 0; y < universeSize; y++)
 			{
-				int offX = rand.nextInt(GameEngine.getScreenWidth() );
-				int offY = rand.nextInt(GameEngine.getScreenHeight() );
+				int offX = random.nextInt(GameEngine.getScreenWidth() );
+				int offY = random.nextInt(GameEngine.getScreenHeight() );
 				entities.add( new Asteroid(new Vector(x*GameEngine.getScreenWidth() + offX, y*GameEngine.getScreenHeight() + offY), this, 0) );				
 			}
 
@@ -98,7 +112,15 @@ public class Game {
 		background = new Background(universeSize, seed);
 	}
 	
-	public Game(Input keys, Shipyard shipyard, ArrayList<SpawnPoint> spawnList, int universeSize){       	
+	public Game(Input keys, Shipyard shipyard, ArrayList<SpawnPoint> spawnList, int universeSize){
+		this(keys, shipyard, spawnList, universeSize, System.currentTimeMillis());
+	}
+	
+	/**
+	 * JJ> Same as above, but with a known seed. Two games with the same seed and the same player input
+	 *     play out exactly the same, no matter if entities think in parallel or not.
+	 */
+	public Game(Input keys, Shipyard shipyard, ArrayList<SpawnPoint> spawnList, int universeSize, long seed){       	
 		
 		victory = false;
        			
@@ -109,18 +131,19 @@ public class Game {
 		this.keys = keys;
 
        	// Initialize the entity container
-       	entities = new ArrayList<GameObject>();
-       	GameEngine.getParticleEngine().getParticleList().clear();
+       	entities = new EntityStore();
+       	GameEngine.getParticleEngine().clear();
 		
        	//Game music
        	Music.play( "battle.ogg" );
 
 		//Generate the universe
-		generateWorld( System.currentTimeMillis(), universeSize, spawnList );
+		generateWorld( seed, universeSize, spawnList );
 
 		// Initialize the camera
 		viewPort = new Camera(
-				entities, 
+				entities.getAll(), 
+				entityGrid,
 				background, 
 				player);
 		viewPort.configureInputHandler(keys);
@@ -131,64 +154,163 @@ public class Game {
 		
 		if(keys.escape && (player.active() || !victory) ) return GameState.GAME_MENU;
 		
-		// Update all entities
-		boolean setVictory = true;
-		for (int i = 0; i < entities.size(); i++)
+		// Let all entities decide what to do, they only look at the world as it was after the previous update
+		targetIndex.rebuild(entities);
+		think();
+		
+		// Update all entities, this is where they change the world
+		ArrayList<GameObject> all = entities.getAll();
+		for (int i = 0; i < all.size(); i++)
 		{
-			GameObject entity = entities.get(i);
-			
-			//Remove inactive objects from the list
-			if( !entity.active() )
-			{
-				entities.remove(entity);
-				continue;
-			}
-			else if( setVictory && entity instanceof Spaceship )
-			{
-				setVictory = player.team.equals( ((Spaceship)entity).team );
-			}
+			GameObject entity = all.get(i);
+			if( !entity.active() ) continue;
 			
 			//Update
+			entity.savePosition();
 			entity.update();
 		}
-		victory = setVictory;
+		
+		//Remove everything that died, all at once
+		entities.removeInactive();
+		
+		//We have won once every enemy spaceship is gone
+		victory = !hasEnemies(entities.getSpaceships()) && !hasEnemies(entities.getInterceptors());
 		
 		//Game physics
-		Physics.updatePhysics(entities);
+		Physics.updatePhysics(all, entityGrid, gravityField);
 		
-		GameEngine.getParticleEngine().update(entities, universeSize);		
+		GameEngine.getParticleEngine().update(entityGrid, universeSize);		
+		
+		//Tell the renderer what the world looks like now
+		RenderSnapshot snapshot = snapshots.beginWrite();
+		viewPort.capture(snapshot);
+		GameEngine.getParticleEngine().capture(snapshot);
+		hud.capture(snapshot);
+		snapshots.publish();
+		playerAlive = player.active();
 		
 		return GameState.GAME_PLAYING;
 	}
 	
+	/**
+	 * JJ> Calls think() for every active entity. Since thinking only changes the entity itself, the order
+	 *     doesn't matter and the work can be spread over every processor. The result is exactly the same
+	 *     as thinking one entity at a time.
+	 */
+	private void think() {
+		ArrayList<GameObject> all = entities.getAll();
+		if( all.size() <= THINK_BATCH || !GameEngine.getConfig().parallelUpdate || Runtime.getRuntime().availableProcessors() == 1 )
+		{
+			new ThinkTask(all, 0, all.size()).compute();
+			return;
+		}
+		
+		ForkJoinPool.commonPool().invoke( new ThinkTask(all, 0, all.size()) );
+	}
+	
+	private boolean hasEnemies( ArrayList<? extends Spaceship> ships ) {
+		for (int i = 0; i < ships.size(); i++)
+		{
+			if( Team.isEnemy(player.team, ships.get(i).team) ) return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * JJ> Lets a range of entities think, splitting it in half until the pieces are small enough
+	 */
+	private static class ThinkTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final ArrayList<GameObject> entities;
+		private final int start, end;
+		
+		ThinkTask( ArrayList<GameObject> entities, int start, int end ) {
+			this.entities = entities;
+			this.start = start;
+			this.end = end;
+		}
+		
+		@Override
+		protected void compute() {
+			if( end - start > THINK_BATCH )
+			{
+				int middle = (start + end) >>> 1;
+				invokeAll( new ThinkTask(entities, start, middle), new ThinkTask(entities, middle, end) );
+				return;
+			}
+			
+			for( int i = start; i < end; i++ )
+			{
+				GameObject entity = entities.get(i);
+				if( entity.active() ) entity.think();
+			}
+		}
+	}
+	
+	/**
+	 * JJ> A new random number generator for something in this game, seeded from the game seed
+	 */
+	Random newRandom() {
+		return new Random( random.nextLong() );
+	}
+	
+	/**
+	 * JJ> Every object in the universe, in the order they were spawned. Use spawn() to add new objects.
+	 */
 	ArrayList<GameObject> getEntityList(){
+		return entities.getAll();
+	}
+	
+	EntityStore getEntities(){
 		return entities;
 	}
+	
+	/**
+	 * JJ> Adds a new object to the universe. Objects spawned during an update are updated in the same update.
+	 */
+	void spawn( GameObject entity ){
+		entities.add(entity);
+	}
+
+	TargetIndex getTargetIndex() {
+		return targetIndex;
+	}
 
 	Input getPlayerController() {
 		return keys;
 	}
 	
+	/**
+	 * JJ> Draws the newest world snapshot. This never touches the objects that are being updated, so it is
+	 *     safe to do on another thread while update() is running.
+	 */
 	public void draw(Graphics2D g){
+		RenderSnapshot snapshot = snapshots.read();
+		if( snapshot == null ) return;
 
-		viewPort.drawView(g);
-		GameEngine.getParticleEngine().render(g);
-		hud.draw(g);
+		viewPort.drawView(g, snapshot);
+		GameEngine.getParticleEngine().render(g, snapshot);
+		hud.draw(g, snapshot);
 				
 		//Debug info
 		if( GameEngine.getConfig().debugMode )
 		{
 			GameFont.set(g, FontType.FONT_NORMAL, Color.WHITE, 14);
-			g.drawString("Number of particles: " + GameEngine.getParticleEngine().getParticleCount(), 5, 50);
+			g.drawString("Number of particles: " + snapshot.getParticleCount(), 5, 50);
 			g.drawString("Number of threads: " + Thread.activeCount() + " (" + Sound.getActiveSounds() + " sound)", 5, 70);
+			
+			FramePacer pacer = GameEngine.getFramePacer();
+			g.drawString("FPS: " + (int)pacer.getFramesPerSecond() + " (target " + pacer.getTargetFrameTime()/1000000f + " ms, average " 
+					+ pacer.getAverageFrameTime()/1000000f + " ms, worst " + pacer.getWorstFrameTime()/1000000f + " ms)", 5, 90);
+			g.drawString("Late frames: " + pacer.getLateFrames() + " Skipped frames: " + pacer.getSkippedFrames(), 5, 110);
 		}
 	}
 
 	public boolean isEnded() {
-		return !player.active();
+		return !playerAlive;
 	}
 	
 	public boolean victory() {
-		return player.active() && victory;
+		return playerAlive && victory;
 	}
 }
@@ -18,10 +18,12 @@
 //********************************************************************************************
 package narwhal;
 
-import gameEngine.GameObject;
 import gameEngine.Image2D;
 import gameEngine.Vector;
 import gameEngine.GameEngine;
+import gameEngine.RenderSnapshot;
+import gameEngine.RenderSnapshot.HudState;
+import gameEngine.Team;
 import gameEngine.Configuration.VideoQuality;
 
 import java.awt.Color;
@@ -54,25 +56,79 @@ public class HUD {
 	private ArrayList<Spaceship> tracking;
 	private Image2D radioActive, slowing;
 	
+	//Reused by drawRadar() every frame, only touched by the render thread
+	private final Vector radarDiff = new Vector(), tip = new Vector(), botLeft = new Vector(), botRight = new Vector();
+	private final int[] xPoints = new int[3], yPoints = new int[3];
+	
 	/**
 	 * JJ> Constructs a new HUD object which is the overlay that shows the player how much
 	 * life, shield and energy he has left. Also does radar and displays weapon.
 	 * @param observer This should be the player's ship or whatever other ship you want to follow
 	 */
-	public HUD( Spaceship observer, ArrayList<GameObject> tracking){
+	public HUD( Spaceship observer, ArrayList<Spaceship> tracking){
 		this.observer = observer;
-		this.tracking = new ArrayList<Spaceship>();
-		for( GameObject track : tracking )
-			if( track instanceof Spaceship ) this.tracking.add((Spaceship)track);
+		this.tracking = new ArrayList<Spaceship>(tracking);
 		
 		radioActive = new Image2D("data/radioactive.png");
 		slowing = new Image2D("data/slow.png");
 	}
 
-	public void draw(Graphics2D g) {
+	/**
+	 * JJ> Copies everything the HUD shows into the snapshot. Called by the game at the end of every update,
+	 *     so draw() never has to look at the ships while they are being updated.
+	 */
+	public void capture(RenderSnapshot snapshot) {
+		HudState hud = snapshot.hud;
 		
 		//Don't draw HUD for players who lost
 		if( !observer.active() ) return;
+		
+		hud.visible = true;
+		hud.shield = observer.shield;
+		hud.shieldMax = observer.shieldMax;
+		hud.life = observer.getLife();
+		hud.lifeMax = observer.getMaxLife();
+		hud.energy = observer.energy;
+		hud.energyMax = observer.energyMax;
+		hud.radioActive = observer.radioActive != 0;
+		hud.slowed = observer.slow < 1;
+		hud.homed = observer.homed;
+		hud.radarLevel = observer.radarLevel;
+		hud.team = observer.team;
+		hud.centreX = observer.getCentreX();
+		hud.centreY = observer.getCentreY();
+		hud.mouseX = observer.getInput().mousePos.getX();
+		hud.mouseY = observer.getInput().mousePos.getY();
+		
+		//Ships that are tracked
+		if( observer.radarLevel <= 0 ) return;
+		for( int i = 0; i < tracking.size(); i++ )
+		{
+			Spaceship target = tracking.get(i);
+			
+			//Remove destroyed ships from the list
+			if( !target.active() )
+			{
+				tracking.remove(i--);
+				continue;
+			}
+			
+			//Dont track invisible or disguised enemies
+			if( target == observer || target.disguised != null || target.cloaked ) continue;
+			
+			hud.addBlip(target.getCentreX(), target.getCentreY(), target.getImage().getWidth(), target.getImage().getHeight(), target.team,
+					target.shield, target.shieldMax, target.getLife(), target.getMaxLife(), target.energy, target.energyMax);
+		}
+	}
+
+	/**
+	 * JJ> Draws the HUD the way it was when the snapshot was made
+	 */
+	public void draw(Graphics2D g, RenderSnapshot snapshot) {
+		HudState hud = snapshot.hud;
+		
+		//Don't draw HUD for players who lost
+		if( !hud.visible ) return;
 				
 		//Calculate positions		
 		Vector hudPos = GameEngine.getResolutionVector().minus(new Vector(200, 200));
@@ -82,10 +138,10 @@ public class HUD {
 		g.fillArc(hudPos.getX(), hudPos.getY(), 400, 400, 180, -90);
 
 		//Shield
-		if(observer.shieldMax != 0)
+		if(hud.shieldMax != 0)
 		{
 			g.setColor(SHIELD);
-			g.fillArc(hudPos.getX()+10, hudPos.getY()+10, 380, 380, 180, -(int) (90f*(observer.shield/observer.shieldMax)));
+			g.fillArc(hudPos.getX()+10, hudPos.getY()+10, 380, 380, 180, -(int) (90f*(hud.shield/hud.shieldMax)));
 		}
 
 		//Life background
@@ -94,7 +150,7 @@ public class HUD {
 		
 		//Life
 		g.setColor(LIFE);
-		g.fillArc(hudPos.getX()+60, hudPos.getY()+60, 280, 280, 180, -(int) (90f*(observer.getLife()/observer.getMaxLife())));
+		g.fillArc(hudPos.getX()+60, hudPos.getY()+60, 280, 280, 180, -(int) (90f*(hud.life/hud.lifeMax)));
 		
 		g.setColor(BACKGROUND);
 		g.fillArc(hudPos.getX()+100, hudPos.getY()+100, 200, 200, 180, -90);
@@ -112,7 +168,7 @@ public class HUD {
 		
 		//Energy
 		g.setColor(ENERGY);
-		g.fillArc(hudPos.getX()+10, hudPos.getY()+10, 380, 380, 0, (int) (90f*(observer.energy/observer.energyMax)));
+		g.fillArc(hudPos.getX()+10, hudPos.getY()+10, 380, 380, 0, (int) (90f*(hud.energy/hud.energyMax)));
 		
 		g.setColor(BACKGROUND);
 		g.fillArc(hudPos.getX()+50, hudPos.getY()+50, 300, 300, 0, 90);
@@ -123,93 +179,78 @@ public class HUD {
 				g.drawLine(0, GameEngine.getScreenHeight(), (int)(Math.cos((Math.PI/44)*i)*200.0), GameEngine.getScreenHeight()-(int)(Math.sin((Math.PI/44)*i)*200.0));
 		
 		//Draw radiation status
-		if( observer.radioActive != 0 )
+		if( hud.radioActive )
 		{
 			radioActive.draw( g, GameEngine.getScreenWidth()-radioActive.getWidth(), 0 );
 		}
 		
 		//Draw slowing status
-		if( observer.slow < 1 )
+		if( hud.slowed )
 		{
 			slowing.draw(g, GameEngine.getScreenWidth()-radioActive.getWidth()-slowing.getWidth(), 0);
 		}
 
 		//Draw ships that are tracked
-		if(observer.radarLevel > 0)
+		for( int i = 0; i < hud.blipCount; i++ )
 		{
-			for( int i = 0; i < tracking.size(); i++ )
-			{
-				Spaceship target = tracking.get(i);
-				
-				//Remove destroyed ships from the list
-				if( !target.active() )
-				{
-					tracking.remove(i--);
-					continue;
-				}
-				
-				//Track it
-				drawRadar(target, g);
-			}
+			drawRadar(hud, i, g);
 		}
 		
 		//Draw observer crosshair (this should be done through Mouse Icon really)
 		g.setColor(Color.green);
-		g.drawOval( observer.getInput().mousePos.getX()-5, observer.getInput().mousePos.getY()-5, 10, 10);
+		g.drawOval( hud.mouseX-5, hud.mouseY-5, 10, 10);
 
 		//Is the observer homed in on?
-		if( observer.homed )
+		if( hud.homed )
 		{
 			GameFont.set(g, FontType.FONT_DESCRIBE, Color.RED, 18);
 			g.drawString("LOCKED ON!", GameEngine.getScreenWidth()/2-GameFont.getWidth("LOCKED ON!", g)/2, GameFont.getHeight(g)+5);
 		}
 	}
 	
-	//JJ> Draws one tracking polygon for the specified spaceship
-	private void drawRadar(Spaceship target, Graphics2D g) {
-		
-		//Dont track invisible or disguised enemies
-		if( target == observer || target.disguised != null || target.cloaked ) return;
+	//JJ> Draws one tracking polygon for the specified radar blip
+	private void drawRadar(HudState hud, int i, Graphics2D g) {
 		
 		//No need to draw if we can see them
-		if( GameEngine.isInFrame(target) )
+		if( GameEngine.isInView(hud.blipX[i] - hud.blipWidth[i]/2, hud.blipY[i] - hud.blipHeight[i]/2, hud.blipWidth[i], hud.blipHeight[i]) )
 		{
 			//But we might need to draw their life, shield and energy bars
-			drawRadarStatus(g, target);
+			drawRadarStatus(g, hud, i);
 			return;
 		}
 		
 		//Calculate arrow position
-		Vector diff = target.getPosCentre().minus(observer.getPosCentre());
-		int dist = (int)diff.length();
-		diff.setLength(150);
+		radarDiff.set(hud.blipX[i] - hud.centreX, hud.blipY[i] - hud.centreY);
+		int dist = (int)radarDiff.length();
+		radarDiff.setLength(150);
 		
-		Vector tip = diff.clone();
-		Vector botLeft = tip.clone();
+		tip.set(radarDiff);
+		botLeft.set(tip);
 		botLeft.setLength(125);
-		Vector botRight = botLeft.clone();
+		botRight.set(botLeft);
 		botLeft.rotateBy((float)-(Math.PI/32.0));
 		botRight.rotateBy((float)(Math.PI/32.0));
-		tip = SCREEN_MID.plus(tip);
-		botLeft = SCREEN_MID.plus(botLeft);
-		botRight = SCREEN_MID.plus(botRight);
+		tip.add(SCREEN_MID);
+		botLeft.add(SCREEN_MID);
+		botRight.add(SCREEN_MID);
 		
 		//Good radars make difference from enemies and allies
-		if( observer.radarLevel >= 2 )
+		if( hud.radarLevel >= 2 )
 		{
 			//Allies get green arrow
-			if(observer.team.equals(target.team)) g.setColor( FRIEND );
+			if(Team.isAlly(hud.team, hud.blipTeam[i])) g.setColor( FRIEND );
 			else						          g.setColor( ENEMY );
 		}
 		else g.setColor( NEUTRAL );
 		
 		//Draw the arrow pointer
-		int[] xPoints = new int[]{ tip.getX(), botLeft.getX(), botRight.getX() };
-		int[] yPoints = new int[]{ tip.getY(), botLeft.getY(), botRight.getY() };
+		xPoints[0] = tip.getX();	 yPoints[0] = tip.getY();
+		xPoints[1] = botLeft.getX(); yPoints[1] = botLeft.getY();
+		xPoints[2] = botRight.getX(); yPoints[2] = botRight.getY();
 		g.fillPolygon(xPoints, yPoints, 3);
 				
 		//Draw distance to target (Radar level 2 or higher)
-		if( observer.radarLevel >= 2 )
+		if( hud.radarLevel >= 2 )
 		{
 			Vector rightMost;
 			if (tip.x > botLeft.x)
@@ -226,50 +267,49 @@ public class HUD {
 		}		
 	}
 	
-	private void drawRadarStatus(Graphics2D g, Spaceship target) {
+	private void drawRadarStatus(Graphics2D g, HudState hud, int i) {
 		
-		if( observer.radarLevel < 2 ) return;
+		if( hud.radarLevel < 2 ) return;
 				
-		int height = target.getImage().getHeight();
-		int width = target.getImage().getWidth();
+		int height = hud.blipHeight[i];
+		int width = hud.blipWidth[i];
 		
 		//Calculate position
-		Vector diff = target.getPosCentre().minus(GameEngine.getCameraPos());
-		int drawX = diff.getX() - width/2;
-		int drawY = diff.getY() - height/2 - height/4;
+		int drawX = (int)(hud.blipX[i] - GameEngine.getViewPos().x) - width/2;
+		int drawY = (int)(hud.blipY[i] - GameEngine.getViewPos().y) - height/2 - height/4;
 		
 		//Shield
-		if(target.shieldMax != 0)
+		if(hud.blipShieldMax[i] != 0)
 		{
 			g.setColor(RADAR_BACK);
 			g.fillRoundRect(drawX, drawY, width, height/8, 25, 25);
 			
 			g.setColor( RADAR_SHIELD );
-			width = Math.max( 0, (int)((width/target.shieldMax) * target.shield) );
+			width = Math.max( 0, (int)((width/hud.blipShieldMax[i]) * hud.blipShield[i]) );
 			g.fillRoundRect(drawX, drawY, width, height/8, 25, 25);
 		}
 		
 		//Life and Energy is only drawn on radar level 3 or higher
-		if( observer.radarLevel < 3 ) return;
+		if( hud.radarLevel < 3 ) return;
 
 		//Life
-		width = target.getImage().getWidth();
+		width = hud.blipWidth[i];
 		drawY -= height/8;
 		g.setColor(RADAR_BACK);
 		g.fillRoundRect(drawX, drawY, width, height/8, 25, 25);
 		
 		g.setColor( RADAR_LIFE );
-		width = Math.max( 0, (int)((width/target.getMaxLife()) * target.getLife()) );
+		width = Math.max( 0, (int)((width/hud.blipLifeMax[i]) * hud.blipLife[i]) );
 		g.fillRoundRect(drawX, drawY, width, height/8, 25, 25);
 
 		//Energy
-		width = target.getImage().getWidth();
+		width = hud.blipWidth[i];
 		drawY -= height/8;
 		g.setColor(RADAR_BACK);
 		g.fillRoundRect(drawX, drawY, width, height/8, 25, 25);
 		
 		g.setColor( RADAR_ENERGY );
-		width = Math.max( 0, (int)((width/target.energyMax) * target.energy) );
+		width = Math.max( 0, (int)((width/hud.blipEnergyMax[i]) * hud.blipEnergy[i]) );
 		g.fillRoundRect(drawX, drawY, width, height/8, 25, 25);
 	}
 	
@@ -1,10 +1,9 @@
 package narwhal;
 
-import java.util.ArrayList;
-
 import gameEngine.GameObject;
 import gameEngine.Input;
 import gameEngine.Sound;
+import gameEngine.Team;
 import gameEngine.Vector;
 import gameEngine.GameEngine;
 
@@ -16,7 +15,6 @@ public class Interceptor extends Spaceship {
 	private static Sound launch = new Sound("shiplaunch.wav");
 	private static Sound dock   = new Sound("shipdock.wav");	
 	
-	private ArrayList<GameObject>	entities;	//Contains all gameObjects in the universe...
     private long timer;							//AI timer
     private Spaceship target;					//What's our target?
     private State state;						//What are we currently doing?
@@ -30,7 +28,7 @@ public class Interceptor extends Spaceship {
     }
     
 	public Interceptor(Vector pos, SpaceshipTemplate blueprint, Spaceship master) {
-		super(blueprint, master.team, master.world);
+		super(blueprint, master.team, master.world, Archetype.INTERCEPTOR);
 		this.pos 	    = pos;
 		keys 		    = new Input();
 		speed           = master.getSpeed().clone();
@@ -42,7 +40,6 @@ public class Interceptor extends Spaceship {
 		
 		//Set references
 		this.world 		= master.world;
-		entities 		= master.world.getEntityList();
 		
 		//Play sound
 		launch.play3D(pos, GameEngine.getCameraPos());
@@ -75,7 +72,7 @@ public class Interceptor extends Spaceship {
 		if( !master.active() ) this.destroy();
 		
 		//Only be active every so often
-		if( timer > System.currentTimeMillis() )
+		if( timer > GameEngine.getGameTime() )
 		{
 			super.update();
 			return;
@@ -91,7 +88,7 @@ public class Interceptor extends Spaceship {
 			keys.mousePos = master.getPosCentre();
 			keys.up = true;
 			if( getDistanceTo(master) < 400 && getSpeed().length() > maxSpeed/2 ) getSpeed().setLength(maxSpeed/2);
-			timer = System.currentTimeMillis() + 50;
+			timer = GameEngine.getGameTime() + 50;
 		}
 		
 		//STATE FOLLOW - Follow master and look for enemies
@@ -102,25 +99,8 @@ public class Interceptor extends Spaceship {
 			//Find enemy target, but only if master is close
 			if( getDistanceTo(master) < 1000 )
 			{
-				for( int i = 0; i < entities.size(); i++ )
-				{
-					//Skip non-spaceships
-					if( !(entities.get(i) instanceof Spaceship) ) continue;						
-					Spaceship tryTarget = (Spaceship)entities.get(i);
-					
-					//Don't target ourself, that would be silly
-					if( tryTarget == this || !tryTarget.active() ) continue;
-					
-					//Don't target friendlies
-					if( tryTarget.team.equals(this.team) ) continue;
-								
-					//Calculate distance. If it is less than the last target, keep this one instead
-					if( getDistanceTo(tryTarget) < 800 )
-					{	
-						target = tryTarget;
-						break;
-					}
-				}
+				Spaceship tryTarget = world.getTargetIndex().findClosestEnemy(this, 800, false);
+				if( tryTarget != null ) target = tryTarget;
 			}
 			
 			//Enter attack mode if we found a target
@@ -140,7 +120,7 @@ public class Interceptor extends Spaceship {
 					keys.down = true;
 				}
 			}
-			timer = System.currentTimeMillis() + 100;
+			timer = GameEngine.getGameTime() + 100;
 		}
 		
 		//STATE ATTACK - Follow and fire at enemy target!
@@ -161,7 +141,7 @@ public class Interceptor extends Spaceship {
 			{
 				keys.mosButton1 = true;
 			}
-			timer = System.currentTimeMillis() + 50;
+			timer = GameEngine.getGameTime() + 50;
 		}
 		
 	}
@@ -170,7 +150,7 @@ public class Interceptor extends Spaceship {
 		if( target == null ) 				return true;
 		if( !target.active() ) 				return true;
 		if( target.equals(this) ) 			return true;
-		if( target.team.equals(this.team) ) return true;
+		if( !Team.isEnemy(target.team, this.team) ) return true;
 		if( target.disguised != null )      return true;
 		return false;
 	}
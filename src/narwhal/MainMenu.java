@@ -37,6 +37,7 @@ public class MainMenu {
 	static final int BUTTON_START_SKIRMISH = 10;
 	static final int BUTTON_START_CAMPAIGN = 11;
 	static final int BUTTON_RETRY = 12;
+	static final int BUTTON_PARTICLES = 13;
 	
 	public MainMenu(Input key) {
 		Random rand = new Random();
@@ -83,6 +84,9 @@ public class MainMenu {
     	String screenText = "Fullscreen: Yes";
 		if( !GameEngine.getConfig().fullScreen ) screenText = "Fullscreen: No";
 
+    	String particleText = "Particles: Java2D";
+		if( GameEngine.getConfig().softwareParticles ) particleText = "Particles: Software";
+
 		pos = new Vector( GameEngine.getScreenWidth()/2, GameEngine.getScreenHeight()/3 );
     	startPos = new Vector(GameEngine.getScreenWidth()/2, GameEngine.getScreenHeight()/2 );
     	buttonList.put( BUTTON_GRAPHICS, new Button(pos, size, gfxText, BUTTON_GRAPHICS, startPos ) );
@@ -93,6 +97,8 @@ public class MainMenu {
     	pos.y += size.y*1.1f;
     	buttonList.put( BUTTON_FULL_SCREEN, new Button(pos, size, screenText, BUTTON_FULL_SCREEN, startPos ) );
     	pos.y += size.y*1.1f;
+    	buttonList.put( BUTTON_PARTICLES, new Button(pos, size, particleText, BUTTON_PARTICLES, startPos ) );
+    	pos.y += size.y*1.1f;
     	buttonList.put( BUTTON_MAIN_MENU, new Button(pos, size, "BACK", BUTTON_MAIN_MENU, startPos ) );
 
 		pos = new Vector( GameEngine.getScreenWidth()/2, GameEngine.getScreenHeight()/3 );
@@ -234,6 +240,7 @@ public class MainMenu {
 				    	buttonList.get(BUTTON_SOUND).show();
 				    	buttonList.get(BUTTON_MUSIC).show();
 				    	buttonList.get(BUTTON_FULL_SCREEN).show();
+				    	buttonList.get(BUTTON_PARTICLES).show();
 				    	buttonList.get(BUTTON_MAIN_MENU).show();
 				    	
 				    	//Fade out the existing buttons
@@ -270,6 +277,7 @@ public class MainMenu {
 				    	buttonList.get(BUTTON_SOUND).hide();
 				    	buttonList.get(BUTTON_MUSIC).hide();
 				    	buttonList.get(BUTTON_FULL_SCREEN).hide();
+				    	buttonList.get(BUTTON_PARTICLES).hide();
 				    	buttonList.get(BUTTON_MAIN_MENU).hide();
 						break;
 					}
@@ -311,6 +319,15 @@ public class MainMenu {
 						break;
 					}
 					
+					case BUTTON_PARTICLES:
+					{
+						//Takes effect the next frame, the renderer checks this every time it draws
+						GameEngine.getConfig().softwareParticles ^= true;
+						if( GameEngine.getConfig().softwareParticles ) button.setText("Particles: Software");
+						else				   							button.setText("Particles: Java2D");
+						break;
+					}
+					
 					case BUTTON_GRAPHICS:
 					{
 						Configuration config = GameEngine.getConfig();
@@ -37,7 +37,7 @@ public class Planet extends GameObject {
 	}
 
 	public Planet(Vector spawnPos, long seed, String name, int planetSize, Game world) {
-		super(world);
+		super(world, Archetype.PLANET);
 		Random rand = new Random(seed);
 		this.world = world;
 		
@@ -218,7 +218,7 @@ public class Shipyard {
 		}
 		
 		//Draw weapon image
-		Image icon = GameEngine.getParticleEngine().getParticleIcon(wpn.particle).getImage();
+		Image icon = GameEngine.getParticleEngine().getParticleImage(wpn.particle);
 		
 		//Resize it so that it fits
 		if(icon.getWidth(null) < 175)
@@ -683,6 +683,13 @@ public class Shipyard {
 				
 		return produced;
 	}
+	
+	/**
+	 * JJ> Makes the ship that is shown right now the player's ship, without going through the menu
+	 */
+	void selectShownShip() {
+		selectedShip = ship;
+	}
 
 	private void setSkrimishMode() {
         Iterator<Button> iterator = buttonList.values().iterator();
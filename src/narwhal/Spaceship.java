@@ -27,7 +27,7 @@ public abstract class Spaceship extends GameObject {
 
 	//General stuff
 	protected String name;						//This ship's name that can be unique
-	public String team;						//This ship is on team with any who share the same team
+	public int team;						//Team number from Team.getID(), see Team for who are friends and foes
 	private int debrisCooldown;				//Time for new wreckage spawn
 	public boolean cloaked;					//Cloaked if true
 	protected Image2D disguised;			//If disguised != null then we are disguised
@@ -65,9 +65,14 @@ public abstract class Spaceship extends GameObject {
 	protected Weapon tetiaryWeapon;
 	protected boolean canCloak;
 	private boolean canJam;
+	private final ArrayList<Spaceship> jammed = new ArrayList<Spaceship>();	//Enemies found by jamming(), reused every time
 
-	public Spaceship( SpaceshipTemplate blueprint, String team, Game world ) {		
-		super(world);
+	public Spaceship( SpaceshipTemplate blueprint, int team, Game world ) {
+		this(blueprint, team, world, Archetype.SPACESHIP);
+	}
+	
+	protected Spaceship( SpaceshipTemplate blueprint, int team, Game world, Archetype archetype ) {		
+		super(world, archetype);
 
 		//Load the variables from the spaceship template and clone them
 		name = new String(blueprint.name);
@@ -99,7 +104,7 @@ public abstract class Spaceship extends GameObject {
 		canJam 			= blueprint.canJam;
 	
 		//Set our team
-		this.team = team.toUpperCase();
+		this.team = team;
 
 		//Default values
 		pos 	  = new Vector();
@@ -188,7 +193,8 @@ public abstract class Spaceship extends GameObject {
 		direction %= 2 * Math.PI;
 		
 		//mouse move
-		float heading = keys.mouseUniversePos().minus(getPosCentre()).getAngle() - direction;
+		Vector mouse = keys.mouseUniversePos();
+		float heading = (float)Math.atan2(mouse.y - getCentreY(), mouse.x - getCentreX()) - direction;
 		if 		(heading > Math.PI)  heading = -((2f * (float)Math.PI) - heading);
 		else if (heading < -Math.PI) heading =  ((2f * (float)Math.PI) + heading);
 		direction += heading * turnRate * slow;
@@ -329,20 +335,10 @@ public abstract class Spaceship extends GameObject {
 		else for(int i = 0; i < 4; i++) GameEngine.getParticleEngine().spawnParticle( "gib.prt", getPosCentre(), direction, this, null );
 		
 		//This kills everyone on our team as well
-		if( vital )
+		if( vital && world != null )
 		{
-			for(int i = 0; world != null && i < world.getEntityList().size(); i++)
-			{
-				//Only destroy spaceship
-				GameObject object = world.getEntityList().get(i);
-				if( !object.active() || object == this || !(object instanceof Spaceship) ) continue;
-				
-				//Only destroy allies
-				Spaceship ally = (Spaceship) object;
-				if( !ally.team.equals(this.team) ) continue;
-				
-				ally.remove();
-			}
+			killAllies( world.getEntities().getSpaceships() );
+			killAllies( world.getEntities().getInterceptors() );
 		}
 
 		super.destroy();
@@ -402,13 +398,13 @@ public abstract class Spaceship extends GameObject {
 		cooldown = 80;
 		
 		//Spawn a interceptor ship behind of this ship
-		Random rand = new Random();
+		Random rand = world.newRandom();
 		Vector spawnPos = getPosCentre();
 		float spawnDir = (direction + (float)Math.PI + rand.nextFloat() - 0.25f );
 		spawnDir %= Math.PI * 2;
 		
 		spawnPos.addDirection(radius + interceptor.image.getWidth(), spawnDir );
-		world.getEntityList().add( new Interceptor(spawnPos, interceptor, this) );		
+		world.spawn( new Interceptor(spawnPos, interceptor, this) );		
 	}
 		
 	/**
@@ -467,6 +463,15 @@ public abstract class Spaceship extends GameObject {
 		if(energy < maxSpeed) cooldown = 100;
 	}
 	
+	private void killAllies( ArrayList<? extends Spaceship> ships ) {
+		for(int i = 0; i < ships.size(); i++)
+		{
+			Spaceship ally = ships.get(i);
+			if( !ally.active() || ally == this || !Team.isAlly(ally.team, this.team) ) continue;
+			ally.remove();
+		}
+	}
+	
 	private void jamming() {
 		if( energy < 100 || cooldown != 0 ) return;
 		energy -= 100;
@@ -485,23 +490,18 @@ public abstract class Spaceship extends GameObject {
 			if( prt.getParticleTemplate().homing == 0 ) continue;
 			
 			//Max jamming distance
-			if( prt.getPos().minus(this.getPosCentre()).length() > 1500 ) continue;
+			if( Vector.distanceSq(prt.getPos().x, prt.getPos().y, getCentreX(), getCentreY()) > 1500*1500 ) continue;
 			
-			prt.team = "NEUTRAL";
+			prt.team = Team.NEUTRAL;
 			prt.jammed = true;
  		}
 		
-		//Iterate through every entity and disable cloaking
-		for(int i = 0; i < world.getEntityList().size(); i++)
+		//Disable cloaking of every enemy within jamming distance
+		world.getTargetIndex().findEnemies(this, 1500, jammed);
+		for(int i = 0; i < jammed.size(); i++)
 		{
-			GameObject object = world.getEntityList().get(i);
-			if( !(object instanceof Spaceship) ) continue;
-			
-			//Jamming distance
-			if( this.getDistanceTo(object) > 1500 ) continue;
-			
-			Spaceship target = (Spaceship)object;
-			if( !target.cloaked || target.team.equals(this.team) ) continue;
+			Spaceship target = jammed.get(i);
+			if( !target.cloaked ) continue;
 			
 			//Remove cloaking
 			target.cooldown += 75;
@@ -509,6 +509,7 @@ public abstract class Spaceship extends GameObject {
 			
 			//TODO: disable radar?
 		}
+		jammed.clear();
 	}
 	
 	private void cloak() {
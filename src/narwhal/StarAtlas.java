@@ -0,0 +1,281 @@
+//********************************************************************************************
+//*
+//*    This file is part of Project Narwhal.
+//*
+//*    Project Narwhal is free software: you can redistribute it and/or modify it
+//*    under the terms of the GNU General Public License as published by
+//*    the Free Software Foundation, either version 3 of the License, or
+//*    (at your option) any later version.
+//*
+//*    Project Narwhal is distributed in the hope that it will be useful, but
+//*    WITHOUT ANY WARRANTY; without even the implied warranty of
+//*    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//*    General Public License for more details.
+//*
+//*    You should have received a copy of the GNU General Public License
+//*    along with Project Narwhal.  If not, see <http://www.gnu.org/licenses/>.
+//*
+//********************************************************************************************
+package narwhal;
+
+import gameEngine.GameEngine;
+import gameEngine.Log;
+
+import java.awt.AlphaComposite;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Random;
+
+/**
+ * JJ> Every star sprite packed into a single image, so that they can be cached on disk as one block of
+ *     pixels instead of hundreds of serialized images. The cache file looks like this (all big endian ints):
+ *         MAGIC, VERSION, sprite count, atlas width, atlas height
+ *         x, y, width, height                (for every sprite)
+ *         ARGB pixels                        (width * height)
+ *         checksum                           (64-bit FNV-1a of everything above, as a long)
+ *     Increase VERSION whenever the way stars are drawn changes, so that old cache files are made again.
+ * @author Johan Jansen and Anders Eie
+ */
+final class StarAtlas {
+	private static final int MAGIC = 0x53544152;		//"STAR"
+	private static final int VERSION = 1;
+	private static final int HEADER_INTS = 5;
+	
+	//Stars come in every size from 1 to MAX_SIZE pixels, with COLOURS different colours for each size
+	private static final int MAX_SIZE = 39;
+	private static final int COLOURS = 16;
+	private static final int ATLAS_WIDTH = 512;
+	
+	private final Image image;
+	private final int[] x, y, width, height;
+	
+	private StarAtlas( BufferedImage pixels, int[] x, int[] y, int[] width, int[] height ) {
+		this.x = x;
+		this.y = y;
+		this.width = width;
+		this.height = height;
+		
+		//Draw from a image that is compatible with the screen, it is faster than plain ARGB
+		BufferedImage compatible = GameEngine.createBufferedImage(pixels.getWidth(), pixels.getHeight());
+		Graphics2D g = compatible.createGraphics();
+		g.setComposite(AlphaComposite.Src);
+		g.drawImage(pixels, 0, 0, null);
+		g.dispose();
+		image = compatible;
+	}
+	
+	/**
+	 * JJ> Number of different stars
+	 */
+	int size() {
+		return x.length;
+	}
+	
+	int getWidth( int star ) {
+		return width[star];
+	}
+	
+	int getHeight( int star ) {
+		return height[star];
+	}
+	
+	/**
+	 * JJ> Draws one of the stars with its upper left corner at the specified position
+	 */
+	void draw( Graphics2D g, int star, int posX, int posY ) {
+		g.drawImage(image, posX, posY, posX + width[star], posY + height[star], 
+				x[star], y[star], x[star] + width[star], y[star] + height[star], null);
+	}
+	
+	/**
+	 * JJ> Draws every star from scratch. Stars are placed left to right in rows, and since they are made
+	 *     from the smallest to the largest, every star is as tall as the row it ends up in.
+	 */
+	static StarAtlas generate() {
+		int count = MAX_SIZE * COLOURS;
+		int[] x = new int[count], y = new int[count], width = new int[count], height = new int[count];
+		
+		//Figure out where everything goes first so that we know how big the atlas needs to be
+		int star = 0, rowX = 0, rowY = 0, rowHeight = 0;
+		for (int s = 1; s <= MAX_SIZE; ++s)
+			for (int c = 0; c < COLOURS; ++c)
+			{
+				if( rowX + s > ATLAS_WIDTH )
+				{
+					rowY += rowHeight;
+					rowX = rowHeight = 0;
+				}
+				x[star] = rowX;
+				y[star] = rowY;
+				width[star] = height[star] = s;
+				rowX += s;
+				rowHeight = s;
+				star++;
+			}
+		
+		BufferedImage pixels = new BufferedImage(ATLAS_WIDTH, rowY + rowHeight, BufferedImage.TYPE_INT_ARGB);
+		Graphics2D g = pixels.createGraphics();
+		Random rand = new Random();
+		star = 0;
+		for (int s = 1; s <= MAX_SIZE; ++s)
+		{
+			for (int c = 0; c < 256; c += 256 / COLOURS)
+			{
+				Graphics2D starGraph = (Graphics2D)g.create(x[star], y[star], s, s);
+				Color col;
+				int rareStar = rand.nextInt(20);	
+				for (int k = 0; k < s*0.6; ++k)
+				{
+					if(rareStar == 1)		col = new Color(c, 0, 0, (int)(Math.pow(255, ((float)k/(float)(s*0.6)))));
+					else					col = new Color((int)(64+((float)k/(float)s)*192f), 64+(int)(((float)k/(float)s)*192f), c, (int)(Math.pow(255, ((float)k/(float)(s*0.6)))));
+					
+					starGraph.setColor(col);
+					starGraph.fillOval(k, k, s-(2*k), s-(2*k));
+				}
+				starGraph.dispose();
+				star++;
+			}
+		}
+		g.dispose();
+		
+		return new StarAtlas(pixels, x, y, width, height);
+	}
+	
+	/**
+	 * JJ> Reads the stars from a cache file made by save()
+	 * @return null if the file is missing, from a different version or damaged
+	 */
+	static StarAtlas load( File file ) {
+		if( !file.exists() ) return null;
+		
+		FileInputStream stream = null;
+		try
+		{
+			stream = new FileInputStream(file);
+			FileChannel channel = stream.getChannel();
+			if( channel.size() > Integer.MAX_VALUE ) throw new IOException("File is too big");
+			
+			//Read it into memory instead of mapping it. A mapped file stays open until the mapping is 
+			//garbage collected and cannot be replaced by save() on some systems until then.
+			ByteBuffer buffer = ByteBuffer.allocate((int)channel.size());
+			while( buffer.hasRemaining() ) 
+				if( channel.read(buffer) < 0 ) throw new IOException("Unexpected end of file");
+			buffer.flip();
+			IntBuffer data = buffer.asIntBuffer();
+			
+			//Check the header before trusting any of the sizes in it
+			if( data.remaining() < HEADER_INTS ) throw new IOException("File is too short");
+			if( data.get() != MAGIC ) throw new IOException("Not a star cache file");
+			int version = data.get();
+			if( version != VERSION ) throw new IOException("Old version " + version);
+			int count = data.get(), atlasWidth = data.get(), atlasHeight = data.get();
+			if( count <= 0 || atlasWidth <= 0 || atlasHeight <= 0 ) throw new IOException("Invalid header");
+			long expected = 4L * (HEADER_INTS + 4L*count + (long)atlasWidth*atlasHeight) + 8;
+			if( buffer.capacity() != expected ) throw new IOException("Wrong file size");
+			
+			if( checksum(data, 0, (int)(expected/4) - 2) != buffer.getLong((int)expected - 8) ) throw new IOException("Checksum mismatch");
+			
+			//Read the sprites
+			int[] x = new int[count], y = new int[count], width = new int[count], height = new int[count];
+			for( int i = 0; i < count; i++ )
+			{
+				x[i] = data.get();
+				y[i] = data.get();
+				width[i] = data.get();
+				height[i] = data.get();
+				if( x[i] < 0 || y[i] < 0 || width[i] <= 0 || height[i] <= 0 || x[i] + width[i] > atlasWidth || y[i] + height[i] > atlasHeight ) 
+					throw new IOException("Invalid sprite " + i);
+			}
+			
+			BufferedImage pixels = new BufferedImage(atlasWidth, atlasHeight, BufferedImage.TYPE_INT_ARGB);
+			data.get(((DataBufferInt)pixels.getRaster().getDataBuffer()).getData());
+			return new StarAtlas(pixels, x, y, width, height);
+		}
+		catch (Exception e) 
+		{
+			Log.message("Star cache file is not usable, creating a new one. (" + e.toString() + ")");
+			return null;
+		}
+		finally
+		{
+			try
+			{
+				if( stream != null ) stream.close();
+			}
+			catch (IOException e) 
+			{
+				Log.warning("Could not close star cache file: " + e.toString());
+			}
+		}
+	}
+	
+	/**
+	 * JJ> Writes the stars into a cache file. A temporary file is written first so that a crash half
+	 *     way never leaves a damaged cache behind.
+	 */
+	void save( File file ) {
+		int atlasWidth = 0, atlasHeight = 0;
+		for( int i = 0; i < size(); i++ )
+		{
+			atlasWidth = Math.max(atlasWidth, x[i] + width[i]);
+			atlasHeight = Math.max(atlasHeight, y[i] + height[i]);
+		}
+		
+		//Always store plain ARGB, no matter what the screen uses
+		BufferedImage pixels = new BufferedImage(atlasWidth, atlasHeight, BufferedImage.TYPE_INT_ARGB);
+		Graphics2D g = pixels.createGraphics();
+		g.setComposite(AlphaComposite.Src);
+		g.drawImage(image, 0, 0, null);
+		g.dispose();
+		
+		int ints = HEADER_INTS + 4*size() + atlasWidth*atlasHeight;
+		ByteBuffer buffer = ByteBuffer.allocate(4*ints + 8);
+		IntBuffer data = buffer.asIntBuffer();
+		data.put(MAGIC).put(VERSION).put(size()).put(atlasWidth).put(atlasHeight);
+		for( int i = 0; i < size(); i++ ) data.put(x[i]).put(y[i]).put(width[i]).put(height[i]);
+		data.put(((DataBufferInt)pixels.getRaster().getDataBuffer()).getData());
+		buffer.putLong(4*ints, checksum(data, 0, ints));
+		
+		File temp = new File(file.getPath() + ".tmp");
+		FileOutputStream stream = null;
+		try
+		{
+			stream = new FileOutputStream(temp);
+			FileChannel channel = stream.getChannel();
+			while( buffer.hasRemaining() ) channel.write(buffer);
+			stream.close();
+			stream = null;
+			
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+		catch (IOException e) 
+		{
+			Log.warning("Error writing star cache file: " + e.toString());
+			try
+			{
+				if( stream != null ) stream.close();
+			}
+			catch (IOException ignore) {}
+			temp.delete();
+		}
+	}
+	
+	//64-bit FNV-1a of a range of ints
+	private static long checksum( IntBuffer data, int start, int end ) {
+		long hash = 0xcbf29ce484222325L;
+		for( int i = start; i < end; i++ ) hash = (hash ^ data.get(i)) * 0x100000001b3L;
+		return hash;
+	}
+}
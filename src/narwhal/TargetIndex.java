@@ -0,0 +1,196 @@
+//********************************************************************************************
+//*
+//*    This file is part of Project Narwhal.
+//*
+//*    Project Narwhal is free software: you can redistribute it and/or modify it
+//*    under the terms of the GNU General Public License as published by
+//*    the Free Software Foundation, either version 3 of the License, or
+//*    (at your option) any later version.
+//*
+//*    Project Narwhal is distributed in the hope that it will be useful, but
+//*    WITHOUT ANY WARRANTY; without even the implied warranty of
+//*    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//*    General Public License for more details.
+//*
+//*    You should have received a copy of the GNU General Public License
+//*    along with Project Narwhal.  If not, see <http://www.gnu.org/licenses/>.
+//*
+//********************************************************************************************
+package narwhal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import gameEngine.Team;
+import gameEngine.Vector;
+
+/**
+ * JJ> Remembers where every active Spaceship was at the start of the current update so that the AI can
+ *     find enemies without looking through every object in the universe. Ships are sorted into a grid
+ *     of large cells and a search starts in the cell of whoever is asking and moves outwards ring by ring,
+ *     stopping as soon as no ring further out could hold anything closer than what was already found.
+ *     The index is only changed by rebuild(), so any number of threads may search it at the same time.
+ * @author Johan Jansen and Anders Eie
+ */
+final class TargetIndex {
+	private static final int CELL_SIZE = 512;
+
+	private final int cols, rows;
+	private final float cellWidth, cellHeight;
+	private final int[] cellStart;					//Where each cell begins in the sorted arrays, the last entry is the ship count
+	
+	//Every ship sorted by cell, in the same order as the entity list within each cell
+	private Spaceship[] ships = new Spaceship[64];
+	private float[] shipX = new float[64], shipY = new float[64];
+	private int count;
+	
+	//Scratch space for rebuild(), the ships in entity list order
+	private Spaceship[] unsorted = new Spaceship[64];
+	private int[] unsortedCell = new int[64];
+	
+	public TargetIndex( float width, float height ) {
+		cols = Math.max(1, Math.round(width / CELL_SIZE));
+		rows = Math.max(1, Math.round(height / CELL_SIZE));
+		cellWidth = width / cols;
+		cellHeight = height / rows;
+		cellStart = new int[cols*rows + 1];
+	}
+
+	/**
+	 * JJ> Throws away the old positions and adds every active Spaceship where it is right now
+	 */
+	public void rebuild( EntityStore entities ) {
+		Arrays.fill(ships, 0, count, null);
+		Arrays.fill(cellStart, 0);
+		count = 0;
+		
+		//Find the ships and count how many there are in each cell
+		count( entities.getSpaceships() );
+		count( entities.getInterceptors() );
+		
+		//Turn the counts into where each cell starts
+		for( int cell = 0; cell < cols*rows; cell++ ) cellStart[cell+1] += cellStart[cell];
+		
+		//Then put each ship in its place, cellStart is moved forwards while doing so and moved back afterwards
+		for( int i = 0; i < count; i++ )
+		{
+			int index = cellStart[unsortedCell[i]]++;
+			ships[index] = unsorted[i];
+			shipX[index] = unsorted[i].getCentreX();
+			shipY[index] = unsorted[i].getCentreY();
+			unsorted[i] = null;
+		}
+		System.arraycopy(cellStart, 0, cellStart, 1, cols*rows);
+		cellStart[0] = 0;
+	}
+	
+	private void count( ArrayList<? extends Spaceship> list ) {
+		for( int i = 0; i < list.size(); i++ )
+		{
+			Spaceship ship = list.get(i);
+			if( !ship.active() ) continue;
+
+			//Make room for one more
+			if( count == unsorted.length )
+			{
+				unsorted = Arrays.copyOf(unsorted, count*2);
+				unsortedCell = Arrays.copyOf(unsortedCell, count*2);
+				ships = Arrays.copyOf(ships, count*2);
+				shipX = Arrays.copyOf(shipX, count*2);
+				shipY = Arrays.copyOf(shipY, count*2);
+			}
+			
+			int cell = cellY(ship.getCentreY()) * cols + cellX(ship.getCentreX());
+			unsorted[count] = ship;
+			unsortedCell[count++] = cell;
+			cellStart[cell+1]++;
+		}
+	}
+	
+	/**
+	 * JJ> Finds the closest active enemy that is not cloaked or disguised
+	 * @param seeker Who is looking for an enemy
+	 * @param range Only enemies closer than this are found
+	 * @param inFront Only find enemies that the seeker is facing
+	 * @return The closest enemy or null if there is none
+	 */
+	public Spaceship findClosestEnemy( Spaceship seeker, float range, boolean inFront ) {
+		float x = seeker.getCentreX(), y = seeker.getCentreY();
+		int centreX = cellX(x), centreY = cellY(y);
+		float cellSize = Math.min(cellWidth, cellHeight);
+		int maxRing = Math.max(cols, rows);
+
+		Spaceship bestTarget = null;
+		float bestDistance = range*range;
+		for( int ring = 0; ring <= maxRing; ring++ )
+		{
+			//Everything in this ring is at least this far away, so stop if we already have something closer
+			float reach = (ring-1) * cellSize;
+			if( reach > 0 && reach*reach >= bestDistance ) break;
+			
+			for( int cy = centreY-ring; cy <= centreY+ring; cy++ )
+			{
+				if( cy < 0 || cy >= rows ) continue;
+				
+				//Only the edge of the ring, the inside was searched already
+				int step = (cy == centreY-ring || cy == centreY+ring) ? 1 : Math.max(1, ring*2);
+				for( int cx = centreX-ring; cx <= centreX+ring; cx += step )
+				{
+					if( cx < 0 || cx >= cols ) continue;
+					int cell = cy * cols + cx;
+					for( int i = cellStart[cell]; i < cellStart[cell+1]; i++ )
+					{
+						Spaceship target = ships[i];
+						
+						//Don't target ourself, friendlies or anyone we can't see
+						if( target == seeker || !target.active() ) continue;
+						if( !Team.isEnemy(target.team, seeker.team) ) continue;
+						if( target.disguised != null || target.cloaked ) continue;
+						
+						float distance = Vector.distanceSq(shipX[i], shipY[i], x, y);
+						if( distance >= bestDistance ) continue;
+						if( inFront && !seeker.facingTarget(target) ) continue;
+						
+						bestTarget = target;
+						bestDistance = distance;
+					}
+				}
+			}
+		}
+		
+		return bestTarget;
+	}
+	
+	/**
+	 * JJ> Finds every active enemy within range, including the ones that are cloaked or disguised
+	 * @param seeker Who is looking for enemies
+	 * @param range How far away to look
+	 * @param result Cleared and then filled with every enemy found
+	 */
+	public void findEnemies( Spaceship seeker, float range, ArrayList<Spaceship> result ) {
+		result.clear();
+		float x = seeker.getCentreX(), y = seeker.getCentreY();
+		
+		for( int cy = cellY(y - range); cy <= cellY(y + range); cy++ )
+			for( int cx = cellX(x - range); cx <= cellX(x + range); cx++ )
+			{
+				int cell = cy * cols + cx;
+				for( int i = cellStart[cell]; i < cellStart[cell+1]; i++ )
+				{
+					Spaceship target = ships[i];
+					if( target == seeker || !target.active() || !Team.isEnemy(target.team, seeker.team) ) continue;
+					if( Vector.distanceSq(shipX[i], shipY[i], x, y) > range*range ) continue;
+					result.add(target);
+				}
+			}
+	}
+
+	//Objects can be slightly outside the universe between updates, those are put in the closest cell
+	private int cellX( float x ) {
+		return Math.min(cols-1, Math.max(0, (int)(x / cellWidth)));
+	}
+
+	private int cellY( float y ) {
+		return Math.min(rows-1, Math.max(0, (int)(y / cellHeight)));
+	}
+}
@@ -0,0 +1,91 @@
+//********************************************************************************************
+//*
+//*    This file is part of Project Narwhal.
+//*
+//*    Project Narwhal is free software: you can redistribute it and/or modify it
+//*    under the terms of the GNU General Public License as published by
+//*    the Free Software Foundation, either version 3 of the License, or
+//*    (at your option) any later version.
+//*
+//*    Project Narwhal is distributed in the hope that it will be useful, but
+//*    WITHOUT ANY WARRANTY; without even the implied warranty of
+//*    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//*    General Public License for more details.
+//*
+//*    You should have received a copy of the GNU General Public License
+//*    along with Project Narwhal.  If not, see <http://www.gnu.org/licenses/>.
+//*
+//********************************************************************************************
+package narwhal;
+
+import gameEngine.GameEngine;
+import gameEngine.GameObject;
+import gameEngine.GravityField;
+import gameEngine.ParticleEngine;
+import gameEngine.Physics;
+import gameEngine.SpatialGrid;
+import gameEngine.Vector;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+
+/**
+ * JJ> Checks that the physics and particle updates do not make garbage every update. Counts the bytes
+ *     allocated by this thread, which needs a HotSpot based Java. The first updates are not counted, 
+ *     before the JIT compiler is done some temporary objects are still made.
+ * @author Johan Jansen and Anders Eie
+ */
+public class AllocationTest {
+	private static final int WARMUP = 5000;
+	private static final int UPDATES = 2000;
+	private static final long MAX_BYTES_PER_UPDATE = 64;		//Some slack for the odd list that grows
+	private static final String[] PARTICLES = {"laser.prt", "multilaser.prt", "plasma.prt", "explosion.prt", "fastlaser.prt"};
+	
+	private static final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+	
+	public static void main(String[] args) {
+		if( !threads.isThreadAllocatedMemorySupported() )
+		{
+			System.out.println("This Java cannot count allocated memory, nothing was checked");
+			return;
+		}
+		threads.setThreadAllocatedMemoryEnabled(true);
+
+		int size = 8;
+		Game game = TestWorld.create(0, size, 1);
+		int width = size*GameEngine.getScreenWidth(), height = size*GameEngine.getScreenHeight();
+		ArrayList<GameObject> all = game.getEntityList();
+		SpatialGrid<GameObject> grid = new SpatialGrid<GameObject>(width, height);
+		GravityField field = new GravityField(width, height);
+		
+		//Physics of every asteroid, the planet and the player
+		for( int i = 0; i < WARMUP; i++ ) Physics.updatePhysics(all, grid, field);
+		long bytes = allocated();
+		for( int i = 0; i < UPDATES; i++ ) Physics.updatePhysics(all, grid, field);
+		bytes = allocated() - bytes;
+		TestWorld.check( bytes / UPDATES <= MAX_BYTES_PER_UPDATE, "Physics.updatePhysics() with " + all.size() + " objects allocates " + bytes / UPDATES + " bytes per update" );
+		
+		//Particles, spawned outside the counted part so that only the update itself is measured
+		ParticleEngine particles = GameEngine.getParticleEngine();
+		Vector pos = new Vector();
+		for( int i = 0; i < WARMUP + UPDATES; i++ )
+		{
+			if( i == WARMUP ) bytes = 0;
+			for( int k = 0; k < 8; k++ )
+			{
+				pos.set( (i*97 + k*331) % width, (i*53 + k*211) % height );
+				particles.spawnParticle(PARTICLES[(i+k) % PARTICLES.length], pos, i*0.1f, null, null);
+			}
+			long before = allocated();
+			particles.update(grid, size);
+			bytes += allocated() - before;
+		}
+		TestWorld.check( bytes / UPDATES <= MAX_BYTES_PER_UPDATE, "ParticleEngine.update() with " + particles.getParticleCount() + " particles allocates " + bytes / UPDATES + " bytes per update" );
+		
+		TestWorld.finish();
+	}
+	
+	private static long allocated() {
+		return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+}
@@ -0,0 +1,79 @@
+//********************************************************************************************
+//*
+//*    This file is part of Project Narwhal.
+//*
+//*    Project Narwhal is free software: you can redistribute it and/or modify it
+//*    under the terms of the GNU General Public License as published by
+//*    the Free Software Foundation, either version 3 of the License, or
+//*    (at your option) any later version.
+//*
+//*    Project Narwhal is distributed in the hope that it will be useful, but
+//*    WITHOUT ANY WARRANTY; without even the implied warranty of
+//*    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//*    General Public License for more details.
+//*
+//*    You should have received a copy of the GNU General Public License
+//*    along with Project Narwhal.  If not, see <http://www.gnu.org/licenses/>.
+//*
+//********************************************************************************************
+package narwhal;
+
+import gameEngine.GameEngine;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+
+/**
+ * JJ> Checks that letting entities think in parallel changes nothing: the same game played with and
+ *     without parallelUpdate must end up exactly the same. Parallel thinking is only used with more than 
+ *     one processor, start Java with -XX:ActiveProcessorCount=4 to test it on a single core machine.
+ *     Drawing frames in between updates must not change the game either.
+ * @author Johan Jansen and Anders Eie
+ */
+public class ParallelThinkTest {
+	private static final int UPDATES = 300;
+	private static final int DRAW_EVERY = 10;			//Updates between each frame when drawing
+	
+	public static void main(String[] args) {
+		if( Runtime.getRuntime().availableProcessors() == 1 )
+			System.out.println("Only one processor, both games think one entity at a time (use -XX:ActiveProcessorCount=4)");
+		
+		int[] ships = {20, 200};
+		long[] seeds = {1, 1234};
+		for( int i = 0; i < ships.length; i++ )
+		{
+			long serial = play(ships[i], seeds[i], false, false);
+			long parallel = play(ships[i], seeds[i], true, false);
+			long again = play(ships[i], seeds[i], false, false);
+			long drawn = play(ships[i], seeds[i], false, true);
+			TestWorld.check( serial == again, ships[i] + " ships, seed " + seeds[i] + ": the same seed plays out the same" );
+			TestWorld.check( serial == parallel, ships[i] + " ships, seed " + seeds[i] + ": parallel thinking gives the same game" );
+			TestWorld.check( serial == drawn, ships[i] + " ships, seed " + seeds[i] + ": drawing frames does not change the game" );
+		}
+		
+		//Otherwise the checks above would pass for any game
+		TestWorld.check( play(ships[0], 1, false, false) != play(ships[0], 2, false, false), "Different seeds give different games" );
+		
+		TestWorld.finish();
+	}
+	
+	/**
+	 * @return TestWorld.hash() of the game after UPDATES updates
+	 */
+	static long play( int ships, long seed, boolean parallel, boolean draw ) {
+		Game game = TestWorld.create(ships, ships >= 200 ? 10 : 6, seed);
+		GameEngine.getConfig().parallelUpdate = parallel;
+		BufferedImage frame = new BufferedImage(GameEngine.getScreenWidth(), GameEngine.getScreenHeight(), BufferedImage.TYPE_INT_RGB);
+		for( int i = 0; i < UPDATES; i++ )
+		{
+			GameEngine.updateHeadless(game);
+			if( draw && i % DRAW_EVERY == 0 )
+			{
+				Graphics2D g = frame.createGraphics();
+				game.draw(g);
+				g.dispose();
+			}
+		}
+		return TestWorld.hash(game);
+	}
+}
@@ -0,0 +1,135 @@
+//********************************************************************************************
+//*
+//*    This file is part of Project Narwhal.
+//*
+//*    Project Narwhal is free software: you can redistribute it and/or modify it
+//*    under the terms of the GNU General Public License as published by
+//*    the Free Software Foundation, either version 3 of the License, or
+//*    (at your option) any later version.
+//*
+//*    Project Narwhal is distributed in the hope that it will be useful, but
+//*    WITHOUT ANY WARRANTY; without even the implied warranty of
+//*    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//*    General Public License for more details.
+//*
+//*    You should have received a copy of the GNU General Public License
+//*    along with Project Narwhal.  If not, see <http://www.gnu.org/licenses/>.
+//*
+//********************************************************************************************
+package narwhal;
+
+import gameEngine.GameEngine;
+import gameEngine.GameObject;
+import gameEngine.Team;
+import gameEngine.Vector;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * JJ> Checks TargetIndex against looking through every ship. Some ships sit on the edges of the universe 
+ *     and some are outside of it, those are kept in the closest cell by the index. Some are cloaked and
+ *     some are destroyed.
+ * @author Johan Jansen and Anders Eie
+ */
+public class TargetIndexTest {
+	private static final int UNIVERSE_SIZE = 8;
+	private static final float[] RANGES = {300, 800, 1600, 3200, 20000};
+	
+	public static void main(String[] args) {
+		float width = UNIVERSE_SIZE*800, height = UNIVERSE_SIZE*600;
+		
+		//Edges, corners, just outside and far outside
+		float[][] corners = {{0, 0}, {width-1, 0}, {0, height-1}, {width-1, height-1}, {width/2, 0}, {width/2, height-1}, {0, height/2}, {width-1, height/2},
+				{-1, -1}, {width+1, height+1}, {-300, height/2}, {width+300, height/2}, {width/2, -300}, {width/2, height+300}, {-5000, -5000}, {width+5000, height+5000}};
+		ArrayList<SpawnPoint> ships = new ArrayList<SpawnPoint>();
+		for( int i = 0; i < corners.length; i++ ) ships.add( TestWorld.ship(i, new Vector(corners[i][0], corners[i][1])) );
+		
+		//Everywhere else, with a good share outside of the universe
+		Random random = new Random(5);
+		for( int i = corners.length; i < 400; i++ )
+			ships.add( TestWorld.ship(i, new Vector(-1500 + random.nextFloat()*(width+3000), -1500 + random.nextFloat()*(height+3000))) );
+		
+		Game game = TestWorld.create(ships, UNIVERSE_SIZE, 1);
+		TestWorld.check( width == UNIVERSE_SIZE*GameEngine.getScreenWidth() && height == UNIVERSE_SIZE*GameEngine.getScreenHeight(), "Universe is " + width + " x " + height );
+		
+		ArrayList<Spaceship> all = new ArrayList<Spaceship>();
+		for( GameObject entity : game.getEntityList() ) if( entity instanceof Spaceship ) all.add( (Spaceship)entity );
+		for( int i = 0; i < all.size(); i++ )
+		{
+			if( i % 7 == 3 ) all.get(i).cloaked = true;
+			if( i % 11 == 5 ) all.get(i).destroy();
+		}
+		
+		int outside = 0;
+		for( Spaceship ship : all ) 
+			if( ship.getCentreX() < 0 || ship.getCentreY() < 0 || ship.getCentreX() >= width || ship.getCentreY() >= height ) outside++;
+		TestWorld.check( outside > 0, outside + " ships are outside the universe" );
+		
+		TargetIndex index = game.getTargetIndex();
+		index.rebuild( game.getEntities() );
+		
+		int closestWrong = 0, closestFound = 0, closestChecks = 0;
+		int enemiesWrong = 0, enemiesFound = 0, enemiesChecks = 0;
+		ArrayList<Spaceship> result = new ArrayList<Spaceship>();
+		for( Spaceship seeker : all )
+		{
+			if( !seeker.active() ) continue;
+			
+			for( float range : RANGES )
+			{
+				for( int inFront = 0; inFront < 2; inFront++ )
+				{
+					Spaceship found = index.findClosestEnemy(seeker, range, inFront == 1);
+					Spaceship expected = closestEnemy(all, seeker, range, inFront == 1);
+					closestChecks++;
+					if( found != null ) closestFound++;
+					
+					//Two enemies can be exactly as far away, then either is right
+					if( found != expected && (found == null || expected == null || seeker.getDistanceSqTo(found) != seeker.getDistanceSqTo(expected)) ) 
+						closestWrong++;
+				}
+				
+				index.findEnemies(seeker, range, result);
+				ArrayList<Spaceship> expected = enemies(all, seeker, range);
+				enemiesChecks++;
+				enemiesFound += result.size();
+				if( result.size() != expected.size() || !result.containsAll(expected) ) enemiesWrong++;
+			}
+		}
+		
+		TestWorld.check( closestWrong == 0, "findClosestEnemy() agrees with a full search in " + (closestChecks-closestWrong) + " of " + closestChecks + " searches (" + closestFound + " found an enemy)" );
+		TestWorld.check( closestFound > 0 && closestFound < closestChecks, "findClosestEnemy() searches both found and missed enemies" );
+		TestWorld.check( enemiesWrong == 0, "findEnemies() agrees with a full search in " + (enemiesChecks-enemiesWrong) + " of " + enemiesChecks + " searches (" + enemiesFound + " enemies found)" );
+		TestWorld.finish();
+	}
+	
+	//The same as TargetIndex.findClosestEnemy(), by looking at every ship
+	private static Spaceship closestEnemy( ArrayList<Spaceship> all, Spaceship seeker, float range, boolean inFront ) {
+		Spaceship best = null;
+		float bestDistance = range*range;
+		for( Spaceship target : all )
+		{
+			if( target == seeker || !target.active() || !Team.isEnemy(target.team, seeker.team) ) continue;
+			if( target.disguised != null || target.cloaked ) continue;
+			
+			float distance = seeker.getDistanceSqTo(target);
+			if( distance >= bestDistance ) continue;
+			if( inFront && !seeker.facingTarget(target) ) continue;
+			best = target;
+			bestDistance = distance;
+		}
+		return best;
+	}
+	
+	//The same as TargetIndex.findEnemies(), by looking at every ship
+	private static ArrayList<Spaceship> enemies( ArrayList<Spaceship> all, Spaceship seeker, float range ) {
+		ArrayList<Spaceship> found = new ArrayList<Spaceship>();
+		for( Spaceship target : all )
+		{
+			if( target == seeker || !target.active() || !Team.isEnemy(target.team, seeker.team) ) continue;
+			if( seeker.getDistanceSqTo(target) <= range*range ) found.add(target);
+		}
+		return found;
+	}
+}
@@ -0,0 +1,139 @@
+//********************************************************************************************
+//*
+//*    This file is part of Project Narwhal.
+//*
+//*    Project Narwhal is free software: you can redistribute it and/or modify it
+//*    under the terms of the GNU General Public License as published by
+//*    the Free Software Foundation, either version 3 of the License, or
+//*    (at your option) any later version.
+//*
+//*    Project Narwhal is distributed in the hope that it will be useful, but
+//*    WITHOUT ANY WARRANTY; without even the implied warranty of
+//*    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//*    General Public License for more details.
+//*
+//*    You should have received a copy of the GNU General Public License
+//*    along with Project Narwhal.  If not, see <http://www.gnu.org/licenses/>.
+//*
+//********************************************************************************************
+package narwhal;
+
+import gameEngine.Configuration;
+import gameEngine.GameEngine;
+import gameEngine.GameObject;
+import gameEngine.Input;
+import gameEngine.Vector;
+
+import java.util.ArrayList;
+
+import narwhal.AI.aiType;
+import narwhal.SpawnPoint.Type;
+
+/**
+ * JJ> Makes games for tests and benchmarks without opening a window. Every game has the player, a planet
+ *     and any number of AI ships of every kind, spread over three teams. Run the tests from the game
+ *     directory with the src folder on the class path, so that the ships and images can be found.
+ * @author Johan Jansen and Anders Eie
+ */
+final class TestWorld {
+	private static final String[] SHIPS = {"raptor", "andromeda", "hybrid", "juggernaught", "natalius", "pioneer", "rombeda", "terran", "xenon", "spacejelly"};
+	private static final String[] TEAMS = {"GOOD", "EVIL", "UGLY"};
+	private static final aiType[] BRAINS = {aiType.BRUTE, aiType.CONTROLLER, aiType.FOOL};
+	
+	private static Input keys;
+	private static Shipyard shipyard;
+	private static int failures;
+	
+	private TestWorld() {
+		//Static only
+	}
+	
+	/**
+	 * JJ> Makes a new game. The engine is started again first, so two games with the same seed and size play
+	 *     out the same.
+	 * @param ships Number of AI ships besides the player, they spawn in random places
+	 * @param universeSize Width and height of the universe in screens
+	 */
+	static Game create( int ships, int universeSize, long seed ) {
+		ArrayList<SpawnPoint> spawnList = new ArrayList<SpawnPoint>();
+		for( int i = 0; i < ships; i++ ) spawnList.add( ship(i, null) );
+		return create(spawnList, universeSize, seed);
+	}
+	
+	/**
+	 * JJ> Same as above, but with the AI ships already made by ship(). The player and the planet are added.
+	 */
+	static Game create( ArrayList<SpawnPoint> ships, int universeSize, long seed ) {
+		GameEngine.startHeadless(new Configuration(""), 800, 600);
+		if( shipyard == null )
+		{
+			keys = new Input();
+			shipyard = new Shipyard(keys);
+			shipyard.selectShownShip();
+		}
+		
+		ArrayList<SpawnPoint> spawnList = new ArrayList<SpawnPoint>();
+		SpawnPoint player = new SpawnPoint(Type.PLAYER);
+		player.team = TEAMS[0];
+		player.pos = new Vector(100, 100);
+		spawnList.add(player);
+		
+		SpawnPoint planet = new SpawnPoint(Type.PLANET);
+		planet.pos = new Vector(universeSize*GameEngine.getScreenWidth()/2, universeSize*GameEngine.getScreenHeight()/2);
+		spawnList.add(planet);
+		
+		spawnList.addAll(ships);
+		return new Game(keys, shipyard, spawnList, universeSize, seed);
+	}
+	
+	/**
+	 * JJ> The AI ship number i of a test game. Ship kind, team and AI all go round in turns.
+	 * @param pos Where it spawns, null for a random place
+	 */
+	static SpawnPoint ship( int i, Vector pos ) {
+		SpawnPoint ship = new SpawnPoint(Type.SPACESHIP);
+		ship.name = "data/ships/" + SHIPS[i % SHIPS.length] + ".ship";
+		ship.team = TEAMS[i % TEAMS.length];
+		ship.ai = BRAINS[i % BRAINS.length];
+		ship.pos = pos;
+		return ship;
+	}
+	
+	/**
+	 * JJ> A number made from the position, speed, direction and life of everything in the game. Two games 
+	 *     that ended up the same have the same hash.
+	 */
+	static long hash( Game game ) {
+		ArrayList<GameObject> all = game.getEntityList();
+		long hash = 17;
+		for( int i = 0; i < all.size(); i++ )
+		{
+			GameObject entity = all.get(i);
+			hash = hash*31 + entity.getClass().getName().hashCode();
+			hash = hash*31 + Float.floatToIntBits(entity.getCentreX());
+			hash = hash*31 + Float.floatToIntBits(entity.getCentreY());
+			hash = hash*31 + Float.floatToIntBits(entity.getSpeed().x);
+			hash = hash*31 + Float.floatToIntBits(entity.getSpeed().y);
+			hash = hash*31 + Float.floatToIntBits(entity.getDirection());
+			hash = hash*31 + Float.floatToIntBits(entity.getLife());
+		}
+		hash = hash*31 + all.size();
+		return hash*31 + GameEngine.getParticleEngine().getParticleCount();
+	}
+	
+	/**
+	 * JJ> Prints the result of one check and remembers if it failed
+	 */
+	static void check( boolean passed, String what ) {
+		System.out.println( (passed ? "OK:     " : "FAILED: ") + what );
+		if( !passed ) failures++;
+	}
+	
+	/**
+	 * JJ> Ends the test, the exit code is the number of failed checks
+	 */
+	static void finish() {
+		System.out.println( failures == 0 ? "All checks passed" : failures + " checks failed" );
+		System.exit( failures );
+	}
+}
@@ -0,0 +1,66 @@
+//********************************************************************************************
+//*
+//*    This file is part of Project Narwhal.
+//*
+//*    Project Narwhal is free software: you can redistribute it and/or modify it
+//*    under the terms of the GNU General Public License as published by
+//*    the Free Software Foundation, either version 3 of the License, or
+//*    (at your option) any later version.
+//*
+//*    Project Narwhal is distributed in the hope that it will be useful, but
+//*    WITHOUT ANY WARRANTY; without even the implied warranty of
+//*    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//*    General Public License for more details.
+//*
+//*    You should have received a copy of the GNU General Public License
+//*    along with Project Narwhal.  If not, see <http://www.gnu.org/licenses/>.
+//*
+//********************************************************************************************
+package narwhal;
+
+import gameEngine.GameEngine;
+
+/**
+ * JJ> Times whole updates with and without parallelUpdate for a few sizes of battle. Only says something
+ *     about the speed-up on a machine with several processors, with one processor both ways think one 
+ *     entity at a time. Arguments: number of ships for each battle (default 50 200 1000).
+ * @author Johan Jansen and Anders Eie
+ */
+public class ThinkBench {
+	private static final int WARMUP = 100;
+	private static final int UPDATES = 300;
+	private static final int ROUNDS = 4;
+	
+	public static void main(String[] args) {
+		String[] battles = args.length > 0 ? args : new String[]{"50", "200", "1000"};
+		System.out.println( Runtime.getRuntime().availableProcessors() + " processors" );
+		
+		for( String battle : battles )
+		{
+			int ships = Integer.parseInt(battle);
+			play(ships, false, WARMUP);
+			play(ships, true, WARMUP);
+			
+			//Take turns, so that neither gets all the benefit of the JIT compiler and the garbage collector settling down
+			for( int round = 0; round < ROUNDS; round++ )
+			{
+				boolean parallelFirst = round % 2 == 1;
+				long first = play(ships, parallelFirst, UPDATES);
+				long second = play(ships, !parallelFirst, UPDATES);
+				long serial = parallelFirst ? second : first, parallel = parallelFirst ? first : second;
+				System.out.println( ships + " ships: serial " + serial/UPDATES/1000000f + " ms, parallel " + parallel/UPDATES/1000000f + " ms per update" );
+			}
+		}
+	}
+	
+	/**
+	 * @return Nanoseconds spent updating
+	 */
+	private static long play( int ships, boolean parallel, int updates ) {
+		Game game = TestWorld.create(ships, ships >= 1000 ? 16 : ships >= 200 ? 10 : 6, 1234);
+		GameEngine.getConfig().parallelUpdate = parallel;
+		long start = System.nanoTime();
+		for( int i = 0; i < updates; i++ ) GameEngine.updateHeadless(game);
+		return System.nanoTime() - start;
+	}
+}